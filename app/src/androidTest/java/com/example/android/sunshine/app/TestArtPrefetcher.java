@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Checks that ArtPrefetcher loads at the sizes the surfaces show the art at, that it
+    prefetches every picture of the pack, and how it counts the loads of each surface.
+ */
+public class TestArtPrefetcher extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestArtPrefetcher.class.getSimpleName();
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+        ArtPrefetcher.getInstance(mContext).clearCounts();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        WeatherConditions.clearArtUrls();
+        ArtPrefetcher.getInstance(mContext).clearCounts();
+        super.tearDown();
+    }
+
+    public void testSurfaceSizes() {
+        ArtPrefetcher artPrefetcher = ArtPrefetcher.getInstance(mContext);
+        int listIcon = mContext.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        int todayIcon = mContext.getResources().getDimensionPixelSize(R.dimen.today_icon);
+
+        assertEquals(listIcon, artPrefetcher.getWidth(ArtPrefetcher.SURFACE_LIST));
+        assertEquals(listIcon, artPrefetcher.getHeight(ArtPrefetcher.SURFACE_LIST));
+        assertEquals(listIcon, artPrefetcher.getWidth(ArtPrefetcher.SURFACE_WIDGET));
+        assertEquals(todayIcon, artPrefetcher.getWidth(ArtPrefetcher.SURFACE_TODAY));
+        assertEquals(todayIcon, artPrefetcher.getHeight(ArtPrefetcher.SURFACE_DETAIL));
+        assertTrue(artPrefetcher.getWidth(ArtPrefetcher.SURFACE_NOTIFICATION) > 0);
+        assertTrue(artPrefetcher.getHeight(ArtPrefetcher.SURFACE_NOTIFICATION) > 0);
+    }
+
+    public void testPrefetchesEveryPicture() {
+        mPrefs.edit().putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_cute_dogs))
+                .commit();
+        WeatherConditions.clearArtUrls();
+
+        List<String> artUrls = WeatherConditions.getAllArtUrls(mContext);
+        assertEquals("Error: A picture is prefetched twice",
+                new HashSet<>(artUrls).size(), artUrls.size());
+
+        Set<String> needed = new HashSet<>();
+        for (int weatherId = WeatherConditions.MIN_ID; weatherId <= WeatherConditions.MAX_ID;
+             weatherId++) {
+            String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+            if (artUrl != null) {
+                needed.add(artUrl);
+            }
+        }
+        assertEquals(needed, new HashSet<>(artUrls));
+
+        ArtPrefetcher artPrefetcher = ArtPrefetcher.getInstance(mContext);
+        assertTrue(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_LIST));
+        assertTrue(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_WIDGET));
+    }
+
+    public void testLocalGraphicsNeedNoPrefetch() {
+        mPrefs.edit().putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+
+        ArtPrefetcher artPrefetcher = ArtPrefetcher.getInstance(mContext);
+        assertFalse(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_LIST));
+        assertFalse(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_TODAY));
+        assertFalse(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_DETAIL));
+        assertFalse(artPrefetcher.isShowingArt(ArtPrefetcher.SURFACE_WIDGET));
+    }
+
+    public void testHitRates() {
+        ArtPrefetcher artPrefetcher = ArtPrefetcher.getInstance(mContext);
+        assertEquals(0f, artPrefetcher.getMemoryHitRate(ArtPrefetcher.SURFACE_LIST));
+
+        artPrefetcher.onLoaded(ArtPrefetcher.SURFACE_LIST, true);
+        artPrefetcher.onLoaded(ArtPrefetcher.SURFACE_LIST, true);
+        artPrefetcher.onLoaded(ArtPrefetcher.SURFACE_LIST, true);
+        artPrefetcher.onLoaded(ArtPrefetcher.SURFACE_LIST, false);
+        artPrefetcher.onLoadFailed(ArtPrefetcher.SURFACE_WIDGET);
+
+        assertEquals(4, artPrefetcher.getLoadCount(ArtPrefetcher.SURFACE_LIST));
+        assertEquals(0.75f, artPrefetcher.getMemoryHitRate(ArtPrefetcher.SURFACE_LIST));
+        assertEquals(1, artPrefetcher.getLoadCount(ArtPrefetcher.SURFACE_WIDGET));
+        assertEquals(0f, artPrefetcher.getMemoryHitRate(ArtPrefetcher.SURFACE_WIDGET));
+        assertEquals(0, artPrefetcher.getLoadCount(ArtPrefetcher.SURFACE_DETAIL));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Checks that the wearable art served from the asset cache is the art itself, and compares
+    encoding it cold with serving it warm, which is what each forecast sent to the watch pays.
+ */
+public class TestAssetCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestAssetCache.class.getSimpleName();
+
+    private static final int[] ART = {
+            R.drawable.art_clear,
+            R.drawable.art_clouds,
+            R.drawable.art_fog,
+            R.drawable.art_light_clouds,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_storm
+    };
+
+    private static final int WARM_ROUNDS = 20;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Utility.clearAssetCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Utility.clearAssetCache();
+        super.tearDown();
+    }
+
+    public void testCachedBytesAreTheArt() {
+        for (int resourceId : ART) {
+            byte[] bytes = Utility.getAssetBytes(resourceId, mContext);
+            assertSame("Error: The second call should reuse the encoded bytes",
+                    bytes, Utility.getAssetBytes(resourceId, mContext));
+
+            Bitmap art = BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            art.compress(Bitmap.CompressFormat.PNG, 100, encoded);
+            art.recycle();
+            assertTrue("Error: The cached asset of " + resourceId + " isn't the art",
+                    Arrays.equals(encoded.toByteArray(), bytes));
+        }
+    }
+
+    public void testColdVersusWarm() {
+        long start = System.nanoTime();
+        for (int resourceId : ART) {
+            Utility.createAsset(resourceId, mContext);
+        }
+        long coldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < WARM_ROUNDS; round++) {
+            for (int resourceId : ART) {
+                Utility.createAsset(resourceId, mContext);
+            }
+        }
+        long warmNanos = (System.nanoTime() - start) / WARM_ROUNDS;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "createAsset for %d art resources: cold %.2f ms, warm %.3f ms",
+                ART.length, coldNanos / 1e6, warmNanos / 1e6));
+        assertTrue("Error: Serving the art warm should beat encoding it",
+                warmNanos < coldNanos);
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Checks that ForecastRowDiff turns the old rows into the new ones, that the selection follows
+    the rows it moves, and counts the rows ForecastAdapter rebinds for a sync that brings the
+    same forecast and for a new day.
+ */
+public class TestForecastRowDiff extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRowDiff.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 211, 600};
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+    private long mToday;
+
+    /**
+     * Counts what the adapter is told, and replays it on a list of keys.
+     */
+    private static class CountingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> keys;
+        final List<ForecastRow> newRows;
+        int fullRefreshes;
+        int changed;
+        int inserted;
+        int removed;
+        int moved;
+
+        CountingObserver(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            keys = new ArrayList<>();
+            for (ForecastRow row : oldRows) {
+                keys.add(row.getKey());
+            }
+            this.newRows = newRows;
+        }
+
+        @Override
+        public void onChanged() {
+            fullRefreshes++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            changed += itemCount;
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            inserted += itemCount;
+            // the positions before an insertion are already final
+            for (int i = positionStart; i < positionStart + itemCount; i++) {
+                keys.add(i, newRows.get(i).getKey());
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            removed += itemCount;
+            for (int i = 0; i < itemCount; i++) {
+                keys.remove(positionStart);
+            }
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            moved += itemCount;
+            keys.add(toPosition, keys.remove(fromPosition));
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+        mPrefs.edit().putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        mToday = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testNoOpSync() {
+        List<ForecastRow> oldRows = createRows("location-0", 0, DAYS, 0);
+        List<ForecastRow> newRows = createRows("location-0", 0, DAYS, 0);
+
+        CountingObserver observer = swap(oldRows, newRows);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Same forecast again: %d rows rebound, %d full refreshes",
+                observer.changed + observer.inserted, observer.fullRefreshes));
+        assertEquals("Error: The same forecast shouldn't rebind any row",
+                0, observer.changed + observer.inserted);
+        assertEquals(0, observer.removed + observer.moved + observer.fullRefreshes);
+    }
+
+    public void testOneDayRoll() {
+        List<ForecastRow> oldRows = createRows("location-0", 0, DAYS, 0);
+        List<ForecastRow> newRows = createRows("location-0", 1, DAYS, 0);
+
+        CountingObserver observer = swap(oldRows, newRows);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "One day later: %d of %d rows rebound (%d changed, %d inserted), %d removed",
+                observer.changed + observer.inserted, newRows.size(), observer.changed,
+                observer.inserted, observer.removed));
+        assertEquals(0, observer.fullRefreshes);
+        assertEquals(1, observer.removed);
+        assertEquals(1, observer.inserted);
+        // the day that becomes the first row, which has its own layout
+        assertEquals(1, observer.changed);
+        assertEquals(keysOf(newRows), observer.keys);
+    }
+
+    public void testSelectionFollowsRoll() {
+        List<ForecastRow> oldRows = createRows("location-0", 0, DAYS, 0);
+        List<ForecastRow> newRows = createRows("location-0", 1, DAYS, 0);
+        int selected = 5;
+
+        ForecastAdapter adapter = createAdapter();
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), oldRows));
+        ItemChoiceManager choiceManager = new ItemChoiceManager(adapter);
+        choiceManager.mCheckStates.put(selected, true);
+
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), newRows, oldRows,
+                ForecastRowDiff.compute(oldRows, newRows)));
+        int position = choiceManager.getSelectedItemPosition();
+        assertEquals("Error: The selection should stay on the same day",
+                oldRows.get(selected).getKey(), newRows.get(position).getKey());
+
+        // the selected day rolls out of the window
+        choiceManager.clearSelections();
+        choiceManager.mCheckStates.put(0, true);
+        List<ForecastRow> laterRows = createRows("location-0", 2, DAYS, 0);
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), laterRows, newRows,
+                ForecastRowDiff.compute(newRows, laterRows)));
+        assertEquals(RecyclerView.NO_POSITION, choiceManager.getSelectedItemPosition());
+    }
+
+    public void testChangedContent() {
+        List<ForecastRow> oldRows = createRows("location-0", 0, DAYS, 0);
+        List<ForecastRow> newRows = createRows("location-0", 0, DAYS, 1);
+
+        ForecastRowDiff diff = ForecastRowDiff.compute(oldRows, newRows);
+        int expected = 0;
+        for (int i = 0; i < DAYS; i++) {
+            if (!newRows.get(i).hasSameContent(oldRows.get(i))) {
+                expected++;
+            }
+        }
+        assertTrue(expected > 0);
+        assertEquals(expected, diff.getRebindCount());
+    }
+
+    public void testOperationsProduceNewRows() {
+        List<ForecastRow> a = createRows("location-a", 0, 5, 0);
+        List<ForecastRow> b = createRows("location-b", 0, 5, 0);
+        List<ForecastRow> c = createRows("location-c", 2, 5, 0);
+
+        List<ForecastRow> oldRows = new ArrayList<>(a);
+        oldRows.addAll(b);
+        List<ForecastRow> newRows = new ArrayList<>(b);
+        newRows.addAll(c);
+        newRows.addAll(a.subList(1, 4));
+
+        CountingObserver observer = swap(oldRows, newRows);
+        assertEquals(0, observer.fullRefreshes);
+        assertEquals(keysOf(newRows), observer.keys);
+        assertEquals(c.size(), observer.inserted);
+        assertEquals(2, observer.removed);
+    }
+
+    public void testLoadMissedFallsBackToFullRefresh() {
+        List<ForecastRow> oldRows = createRows("location-0", 0, DAYS, 0);
+        List<ForecastRow> missedRows = createRows("location-0", 0, DAYS, 1);
+        List<ForecastRow> newRows = createRows("location-0", 0, DAYS, 0);
+
+        ForecastAdapter adapter = createAdapter();
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), oldRows));
+        CountingObserver observer = new CountingObserver(oldRows, newRows);
+        adapter.registerAdapterDataObserver(observer);
+
+        // diffed from rows the adapter never had
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), newRows, missedRows,
+                ForecastRowDiff.compute(missedRows, newRows)));
+        assertEquals(1, observer.fullRefreshes);
+        assertEquals(newRows.size(), adapter.getItemCount());
+    }
+
+    /**
+     * Hands the old rows to an adapter, then the new ones with their diff as the loader does.
+     */
+    private CountingObserver swap(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastAdapter adapter = createAdapter();
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), oldRows));
+
+        CountingObserver observer = new CountingObserver(oldRows, newRows);
+        adapter.registerAdapterDataObserver(observer);
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(new MatrixCursor(
+                ForecastFragment.FORECAST_COLUMNS), newRows, oldRows,
+                ForecastRowDiff.compute(oldRows, newRows)));
+        assertEquals(newRows.size(), adapter.getItemCount());
+        return observer;
+    }
+
+    private ForecastAdapter createAdapter() {
+        return new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+    }
+
+    private List<ForecastRow> createRows(String location, int firstDay, int days, int weatherShift) {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        for (int day = firstDay; day < firstDay + days; day++) {
+            cursor.addRow(new Object[]{
+                    (long) day + 1,
+                    mToday + day * MILLISECONDS_IN_A_DAY,
+                    "Weather",
+                    15.3 + (day % 13),
+                    2.8 + (day % 7),
+                    location,
+                    WEATHER_IDS[(day + weatherShift) % WEATHER_IDS.length],
+                    47.6,
+                    -122.3
+            });
+        }
+        return ForecastRow.fromCursor(mContext, cursor);
+    }
+
+    private static List<String> keysOf(List<ForecastRow> rows) {
+        List<String> keys = new ArrayList<>();
+        for (ForecastRow row : rows) {
+            keys.add(row.getKey());
+        }
+        return keys;
+    }
+}
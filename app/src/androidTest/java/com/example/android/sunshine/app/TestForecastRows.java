@@ -0,0 +1,182 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.widget.AbsListView;
+
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Checks the rows ForecastAdapter binds from against what it used to read from the cursor,
+    and compares the bind time per row of the two over a long list of several locations.
+ */
+public class TestForecastRows extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRows.class.getSimpleName();
+
+    private static final int LOCATIONS = 8;
+    private static final int DAYS_PER_LOCATION = 60;
+    private static final int SCROLLS = 3;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 211, 600, 741, 804, 520};
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+        // local graphics, so that binding doesn't start image loads
+        mPrefs.edit().putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testRowsMatchCursor() {
+        MatrixCursor cursor = createForecastCursor();
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(cursor.getCount(), rows.size());
+
+        for (int position = 0; position < rows.size(); position++) {
+            ForecastRow row = rows.get(position);
+            cursor.moveToPosition(position);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+
+            assertEquals(date, row.date);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), row.artResource);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), row.iconResource);
+            assertNull("Error: Local graphics need no art URL", row.artUrl);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, true), row.longDay);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.day);
+            assertEquals(Utility.getStringForWeatherCondition(mContext, weatherId), row.description);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP)), row.high);
+            assertEquals(Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP)), row.low);
+            assertEquals(mContext.getString(R.string.a11y_low_temp, row.low), row.lowA11y);
+        }
+    }
+
+    public void testBindTimePerRow() {
+        MatrixCursor cursor = createForecastCursor();
+        int count = cursor.getCount();
+
+        RecyclerView recyclerView = new RecyclerView(mContext);
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+
+        // what the loader does on its thread, once per data change
+        long start = System.nanoTime();
+        adapter.swapCursor(new ForecastRowLoader.RowCursor(cursor,
+                ForecastRow.fromCursor(mContext, cursor)));
+        long buildNanos = System.nanoTime() - start;
+        assertEquals(count, adapter.getItemCount());
+
+        ForecastAdapter.ForecastAdapterViewHolder[] holders = {
+                adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(0)),
+                adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(1))
+        };
+
+        start = System.nanoTime();
+        for (int scroll = 0; scroll < SCROLLS; scroll++) {
+            for (int position = 0; position < count; position++) {
+                bindFromCursor(cursor, holders[position == 0 ? 0 : 1], position);
+            }
+        }
+        long cursorNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int scroll = 0; scroll < SCROLLS; scroll++) {
+            for (int position = 0; position < count; position++) {
+                adapter.onBindViewHolder(holders[position == 0 ? 0 : 1], position);
+            }
+        }
+        long rowNanos = System.nanoTime() - start;
+
+        int binds = SCROLLS * count;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d rows of %d locations: binding from the cursor %.1f us per row, from rows "
+                        + "%.1f us per row, after formatting them once in %.1f ms",
+                count, LOCATIONS, cursorNanos / 1e3 / binds, rowNanos / 1e3 / binds,
+                buildNanos / 1e6));
+        assertTrue("Error: Binding the rows should beat binding from the cursor",
+                rowNanos < cursorNanos);
+    }
+
+    private MatrixCursor createForecastCursor() {
+        MatrixCursor cursor = new MatrixCursor(ForecastFragment.FORECAST_COLUMNS);
+        long today = System.currentTimeMillis();
+        long id = 1;
+        for (int location = 0; location < LOCATIONS; location++) {
+            for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                int weatherId = WEATHER_IDS[(location + day) % WEATHER_IDS.length];
+                cursor.addRow(new Object[]{
+                        id++,
+                        today + day * MILLISECONDS_IN_A_DAY,
+                        "Weather",
+                        15.3 + (day % 13) - location,
+                        2.8 + (day % 7) - location,
+                        "location-" + location,
+                        weatherId,
+                        47.6 + location,
+                        -122.3 - location
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * What ForecastAdapter.onBindViewHolder did before the rows, local graphics only.
+     */
+    private void bindFromCursor(MatrixCursor cursor,
+                                ForecastAdapter.ForecastAdapterViewHolder holder, int position) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        boolean useLongToday = position == 0;
+        int defaultImage = useLongToday
+                ? Utility.getArtResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId);
+
+        if (Utility.usingLocalGraphics(mContext)) {
+            holder.mIconView.setImageResource(defaultImage);
+        }
+
+        long dateInMillis = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        holder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        holder.mDescriptionView.setText(description);
+        holder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+
+        double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+        String highString = Utility.formatTemperature(mContext, high);
+        holder.mHighTempView.setText(highString);
+        holder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+
+        double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+        String lowString = Utility.formatTemperature(mContext, low);
+        holder.mLowTempView.setText(lowString);
+        holder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks that TemperatureFormatter formats exactly like the String.format it replaces, in both
+    units, and compares the two over the temperatures a forecast list binds.
+ */
+public class TestTemperatureFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTemperatureFormatter.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 20;
+    // 28 rows of a forecast list, high and low
+    private static final double[] TEMPERATURES = new double[56];
+
+    static {
+        for (int i = 0; i < TEMPERATURES.length; i++) {
+            TEMPERATURES[i] = -12.37 + i * 0.83;
+        }
+    }
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+    private TemperatureFormatter mFormatter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+        mFormatter = TemperatureFormatter.getInstance(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedUnits == null) {
+            mPrefs.edit().remove(mUnitsKey).commit();
+        } else {
+            mPrefs.edit().putString(mUnitsKey, mSavedUnits).commit();
+        }
+        mFormatter.onSharedPreferenceChanged(mPrefs, mUnitsKey);
+        super.tearDown();
+    }
+
+    public void testMatchesStringFormat() {
+        for (String units : new String[]{mContext.getString(R.string.pref_units_metric),
+                mContext.getString(R.string.pref_units_imperial)}) {
+            setUnits(units);
+
+            for (int tenth = -1000; tenth <= 1000; tenth++) {
+                assertFormatsLikeBefore(tenth / 10.0);
+                // the halves, and just around them
+                assertFormatsLikeBefore(tenth / 10.0 + 0.05);
+                assertFormatsLikeBefore(Math.nextUp(tenth / 10.0 + 0.05));
+                assertFormatsLikeBefore(Math.nextAfter(tenth / 10.0 + 0.05, Double.NEGATIVE_INFINITY));
+            }
+            for (double temperature : new double[]{0.0, -0.0, -0.4, -0.5, 0.5, -17.7777, -17.8,
+                    1000, -1000}) {
+                assertFormatsLikeBefore(temperature);
+            }
+        }
+    }
+
+    public void testUnitsChange() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+        String celsius = mFormatter.format(20);
+        setUnits(mContext.getString(R.string.pref_units_imperial));
+        assertFalse("Error: Changing the units should drop the snapshot",
+                celsius.equals(mFormatter.format(20)));
+        assertEquals(formatLikeBefore(mContext, 20), mFormatter.format(20));
+    }
+
+    public void testOutputsAreShared() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+        assertSame("Error: The same degree should be the same String",
+                mFormatter.format(21.3), mFormatter.format(20.8));
+    }
+
+    public void testFormatBenchmark() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+
+        long start = System.nanoTime();
+        int length = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (double temperature : TEMPERATURES) {
+                length += formatLikeBefore(mContext, temperature).length();
+            }
+        }
+        long beforeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (double temperature : TEMPERATURES) {
+                length -= mFormatter.format(temperature).length();
+            }
+        }
+        long afterNanos = System.nanoTime() - start;
+
+        int calls = BENCHMARK_ROUNDS * TEMPERATURES.length;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d temperatures: String.format %.0f ns each, TemperatureFormatter %.0f ns each",
+                calls, (double) beforeNanos / calls, (double) afterNanos / calls));
+        assertEquals(0, length);
+        assertTrue("Error: The formatter should beat String.format", afterNanos < beforeNanos);
+    }
+
+    private void setUnits(String units) {
+        mPrefs.edit().putString(mUnitsKey, units).commit();
+        // the listener is called on the main thread, not this one
+        mFormatter.onSharedPreferenceChanged(mPrefs, mUnitsKey);
+    }
+
+    private void assertFormatsLikeBefore(double temperature) {
+        assertEquals("Error: Formatting " + temperature,
+                formatLikeBefore(mContext, temperature), mFormatter.format(temperature));
+    }
+
+    /**
+     * What Utility.formatTemperature did before the formatter.
+     */
+    private static String formatLikeBefore(Context context, double temperature) {
+        if (!Utility.isMetric(context)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks that the tracked locations read back exactly as they were stored, commas included,
+    after the preferred location.
+ */
+public class TestTrackedLocations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTrackedLocations.class.getSimpleName();
+
+    private SharedPreferences mPrefs;
+    private String mTrackedKey;
+    private String mSavedTracked;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mTrackedKey = mContext.getString(R.string.pref_tracked_locations_key);
+        mSavedTracked = mPrefs.getString(mTrackedKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedTracked == null) {
+            mPrefs.edit().remove(mTrackedKey).commit();
+        } else {
+            mPrefs.edit().putString(mTrackedKey, mSavedTracked).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        String preferred = Utility.getPreferredLocation(mContext);
+        // the preferred location is never listed twice
+        assertFalse(preferred.equals("London,uk"));
+        List<String> tracked = Arrays.asList("London,uk", "Saint-Denis, RE", "Paris,fr");
+        Utility.setTrackedLocations(mContext, tracked);
+
+        List<String> locations = Utility.getTrackedLocations(mContext);
+        assertEquals(preferred, locations.get(0));
+        assertEquals(tracked, locations.subList(1, locations.size()));
+    }
+
+    public void testPreferredLocationComesOnce() {
+        String preferred = Utility.getPreferredLocation(mContext);
+        Utility.setTrackedLocations(mContext, Arrays.asList(preferred, "London,uk", ""));
+
+        assertEquals(Arrays.asList(preferred, "London,uk"),
+                Utility.getTrackedLocations(mContext));
+    }
+
+    public void testNothingTracked() {
+        mPrefs.edit().remove(mTrackedKey).commit();
+        assertEquals(Arrays.asList(Utility.getPreferredLocation(mContext)),
+                Utility.getTrackedLocations(mContext));
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks every condition id against the if/else chains WeatherConditions replaced, in every art
+    pack, and compares the two over what a forecast list bind looks up.
+ */
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditions.class.getSimpleName();
+
+    private static final int BENCHMARK_ROUNDS = 50;
+    // a plausible forecast list
+    private static final int[] LIST_IDS = {800, 801, 802, 500, 501, 800, 803, 804, 211, 600,
+            741, 800, 520, 300, 511, 701, 802, 804, 502, 800};
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        WeatherConditions.clearArtUrls();
+        super.tearDown();
+    }
+
+    public void testMatchesOldLookups() {
+        for (String artPack : mContext.getResources().getStringArray(R.array.pref_art_pack_values)) {
+            setArtPack(artPack);
+
+            for (int id = WeatherConditions.MIN_ID - 201; id <= WeatherConditions.MAX_ID + 100; id++) {
+                assertEquals("Error: Icon of " + id,
+                        oldIconResource(id), Utility.getIconResourceForWeatherCondition(id));
+                assertEquals("Error: Art of " + id,
+                        oldArtResource(id), Utility.getArtResourceForWeatherCondition(id));
+                assertEquals("Error: Image URL of " + id,
+                        oldImageUrl(id), Utility.getImageUrlForWeatherCondition(id));
+                assertEquals("Error: Description of " + id,
+                        oldString(mContext, id), Utility.getStringForWeatherCondition(mContext, id));
+                assertEquals("Error: Art URL of " + id + " in " + artPack,
+                        oldArtUrl(mContext, id), Utility.getArtUrlForWeatherCondition(mContext, id));
+            }
+        }
+    }
+
+    public void testArtUrlsAreShared() {
+        setArtPack(mContext.getString(R.string.pref_art_pack_sunshine));
+        assertSame("Error: An art URL should only be formatted once",
+                Utility.getArtUrlForWeatherCondition(mContext, 500),
+                Utility.getArtUrlForWeatherCondition(mContext, 501));
+    }
+
+    public void testLookupBenchmark() {
+        setArtPack(mContext.getString(R.string.pref_art_pack_sunshine));
+
+        long start = System.nanoTime();
+        int checksum = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int id : LIST_IDS) {
+                checksum += oldIconResource(id) + oldArtResource(id)
+                        + oldString(mContext, id).length() + oldArtUrl(mContext, id).length();
+            }
+        }
+        long oldNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int id : LIST_IDS) {
+                checksum -= Utility.getIconResourceForWeatherCondition(id)
+                        + Utility.getArtResourceForWeatherCondition(id)
+                        + Utility.getStringForWeatherCondition(mContext, id).length()
+                        + Utility.getArtUrlForWeatherCondition(mContext, id).length();
+            }
+        }
+        long newNanos = System.nanoTime() - start;
+
+        int binds = BENCHMARK_ROUNDS * LIST_IDS.length;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d binds: if/else chains %.0f ns each, tables %.0f ns each",
+                binds, (double) oldNanos / binds, (double) newNanos / binds));
+        assertEquals(0, checksum);
+        assertTrue("Error: The tables should beat the chains", newNanos < oldNanos);
+    }
+
+    private void setArtPack(String artPack) {
+        mPrefs.edit().putString(mArtPackKey, artPack).commit();
+        // the listener is called on the main thread, not this one
+        WeatherConditions.clearArtUrls();
+    }
+
+    /*
+        What Utility did before WeatherConditions.
+     */
+
+    private static int oldIconResource(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static String oldArtUrl(Context context, int weatherId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return String.format(Locale.US, formatArtUrl, "light_rain");
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId == 511) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return String.format(Locale.US, formatArtUrl, "fog");
+        } else if (weatherId == 761 || weatherId == 781) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId == 800) {
+            return String.format(Locale.US, formatArtUrl, "clear");
+        } else if (weatherId == 801) {
+            return String.format(Locale.US, formatArtUrl, "light_clouds");
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return String.format(Locale.US, formatArtUrl, "clouds");
+        }
+        return null;
+    }
+
+    private static int oldArtResource(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+
+    private static String oldString(Context context, int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        int stringId;
+        if (weatherId >= 200 && weatherId <= 232) {
+            stringId = R.string.condition_2xx;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            stringId = R.string.condition_3xx;
+        } else switch (weatherId) {
+            case 500:
+                stringId = R.string.condition_500;
+                break;
+            case 501:
+                stringId = R.string.condition_501;
+                break;
+            case 502:
+                stringId = R.string.condition_502;
+                break;
+            case 503:
+                stringId = R.string.condition_503;
+                break;
+            case 504:
+                stringId = R.string.condition_504;
+                break;
+            case 511:
+                stringId = R.string.condition_511;
+                break;
+            case 520:
+                stringId = R.string.condition_520;
+                break;
+            case 531:
+                stringId = R.string.condition_531;
+                break;
+            case 600:
+                stringId = R.string.condition_600;
+                break;
+            case 601:
+                stringId = R.string.condition_601;
+                break;
+            case 602:
+                stringId = R.string.condition_602;
+                break;
+            case 611:
+                stringId = R.string.condition_611;
+                break;
+            case 612:
+                stringId = R.string.condition_612;
+                break;
+            case 615:
+                stringId = R.string.condition_615;
+                break;
+            case 616:
+                stringId = R.string.condition_616;
+                break;
+            case 620:
+                stringId = R.string.condition_620;
+                break;
+            case 621:
+                stringId = R.string.condition_621;
+                break;
+            case 622:
+                stringId = R.string.condition_622;
+                break;
+            case 701:
+                stringId = R.string.condition_701;
+                break;
+            case 711:
+                stringId = R.string.condition_711;
+                break;
+            case 721:
+                stringId = R.string.condition_721;
+                break;
+            case 731:
+                stringId = R.string.condition_731;
+                break;
+            case 741:
+                stringId = R.string.condition_741;
+                break;
+            case 751:
+                stringId = R.string.condition_751;
+                break;
+            case 761:
+                stringId = R.string.condition_761;
+                break;
+            case 762:
+                stringId = R.string.condition_762;
+                break;
+            case 771:
+                stringId = R.string.condition_771;
+                break;
+            case 781:
+                stringId = R.string.condition_781;
+                break;
+            case 800:
+                stringId = R.string.condition_800;
+                break;
+            case 801:
+                stringId = R.string.condition_801;
+                break;
+            case 802:
+                stringId = R.string.condition_802;
+                break;
+            case 803:
+                stringId = R.string.condition_803;
+                break;
+            case 804:
+                stringId = R.string.condition_804;
+                break;
+            case 900:
+                stringId = R.string.condition_900;
+                break;
+            case 901:
+                stringId = R.string.condition_901;
+                break;
+            case 902:
+                stringId = R.string.condition_902;
+                break;
+            case 903:
+                stringId = R.string.condition_903;
+                break;
+            case 904:
+                stringId = R.string.condition_904;
+                break;
+            case 905:
+                stringId = R.string.condition_905;
+                break;
+            case 906:
+                stringId = R.string.condition_906;
+                break;
+            case 951:
+                stringId = R.string.condition_951;
+                break;
+            case 952:
+                stringId = R.string.condition_952;
+                break;
+            case 953:
+                stringId = R.string.condition_953;
+                break;
+            case 954:
+                stringId = R.string.condition_954;
+                break;
+            case 955:
+                stringId = R.string.condition_955;
+                break;
+            case 956:
+                stringId = R.string.condition_956;
+                break;
+            case 957:
+                stringId = R.string.condition_957;
+                break;
+            case 958:
+                stringId = R.string.condition_958;
+                break;
+            case 959:
+                stringId = R.string.condition_959;
+                break;
+            case 960:
+                stringId = R.string.condition_960;
+                break;
+            case 961:
+                stringId = R.string.condition_961;
+                break;
+            case 962:
+                stringId = R.string.condition_962;
+                break;
+            default:
+                return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    private static String oldImageUrl(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId == 511) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+        } else if (weatherId == 800) {
+            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
+        } else if (weatherId == 801) {
+            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
+        }
+        return null;
+    }
+}
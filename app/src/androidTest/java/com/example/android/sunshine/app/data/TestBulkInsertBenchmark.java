@@ -0,0 +1,164 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Compares the old one-insert-per-row bulk path with the precompiled statements used by
+    WeatherBulkWriter, for both the weather and the location tables.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 200;
+    private static final int DAYS_PER_LOCATION = 20;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBulkInsertBenchmark() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        // locations, old path then new path on an emptied table
+        long start = System.nanoTime();
+        int oldLocations = insertEach(db, LocationEntry.TABLE_NAME, createLocationValues());
+        long oldLocationNanos = System.nanoTime() - start;
+        clearTables(db);
+
+        start = System.nanoTime();
+        db.beginTransaction();
+        int newLocations;
+        try {
+            newLocations = WeatherBulkWriter.insertLocations(db, createLocationValues());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long newLocationNanos = System.nanoTime() - start;
+
+        assertEquals(LOCATIONS, oldLocations);
+        assertEquals(LOCATIONS, newLocations);
+        assertEquals("Error: Stored locations should be skipped",
+                0, WeatherBulkWriter.insertLocations(db, createLocationValues()));
+
+        // weather for every location, in one batch as the provider gets it
+        long firstLocationId = DatabaseUtils.longForQuery(db,
+                "SELECT MIN(" + LocationEntry._ID + ") FROM " + LocationEntry.TABLE_NAME, null);
+
+        start = System.nanoTime();
+        int oldRows = insertEach(db, WeatherEntry.TABLE_NAME, createWeatherValues(firstLocationId));
+        long oldWeatherNanos = System.nanoTime() - start;
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+
+        start = System.nanoTime();
+        db.beginTransaction();
+        WeatherBulkWriter.Counts counts;
+        try {
+            counts = WeatherBulkWriter.upsert(db, createWeatherValues(firstLocationId));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long newWeatherNanos = System.nanoTime() - start;
+
+        int rows = LOCATIONS * DAYS_PER_LOCATION;
+        assertEquals(rows, oldRows);
+        assertEquals(rows, counts.inserted);
+        assertEquals(rows, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Locations: %d rows, insert() %.0f rows/s, compiled %.0f rows/s. "
+                        + "Weather: %d rows, insert() %.0f rows/s, compiled %.0f rows/s.",
+                LOCATIONS, rowsPerSecond(LOCATIONS, oldLocationNanos),
+                rowsPerSecond(LOCATIONS, newLocationNanos),
+                rows, rowsPerSecond(rows, oldWeatherNanos),
+                rowsPerSecond(rows, newWeatherNanos)));
+    }
+
+    /*
+        The bulk path as it was before the statements were precompiled.
+     */
+    private static int insertEach(SQLiteDatabase db, String table, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (db.insert(table, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private static void clearTables(SQLiteDatabase db) {
+        db.delete(WeatherEntry.TABLE_NAME, null, null);
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+    }
+
+    private static double rowsPerSecond(int rows, long nanos) {
+        return rows * 1e9 / Math.max(nanos, 1);
+    }
+
+    private static ContentValues[] createLocationValues() {
+        ContentValues[] values = new ContentValues[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues location = new ContentValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+            location.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488 - i * 0.1);
+            location.put(LocationEntry.COLUMN_COORD_LONG, -147.353 + i * 0.1);
+            values[i] = location;
+        }
+        return values;
+    }
+
+    private static ContentValues[] createWeatherValues(long firstLocationId) {
+        ContentValues[] values = new ContentValues[LOCATIONS * DAYS_PER_LOCATION];
+        int row = 0;
+        for (int location = 0; location < LOCATIONS; location++) {
+            long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+            for (int day = 0; day < DAYS_PER_LOCATION; day++, date += MILLISECONDS_IN_A_DAY) {
+                ContentValues weatherValues = new ContentValues();
+                weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, firstLocationId + location);
+                weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+                weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * day);
+                weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3 - 0.01 * day);
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - day);
+                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * day);
+                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                values[row++] = weatherValues;
+            }
+        }
+        return values;
+    }
+}
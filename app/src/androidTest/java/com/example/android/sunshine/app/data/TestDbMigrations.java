@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Builds the database of every past version, fills it, and opens it with the current
+    WeatherDbHelper to check that the upgrade keeps the forecast and ends up with the same
+    schema as a fresh install, fast enough on a large database.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    private static final int LOCATIONS = 100;
+    private static final int DAYS_PER_LOCATION = 60;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    // Generous for an emulator, the point is to catch a migration that rewrites every row
+    private static final long UPGRADE_BUDGET_MILLIS = 3000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsAreOrdered() {
+        int version = WeatherDbHelper.BASELINE_VERSION;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertEquals("Error: Missing or unordered migration", version + 1, migration.toVersion);
+            version = migration.toVersion;
+        }
+        assertEquals("Error: The last migration must reach DATABASE_VERSION",
+                WeatherDbHelper.DATABASE_VERSION, version);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        List<String> freshSchema = readFreshSchema();
+
+        for (int version = WeatherDbHelper.BASELINE_VERSION;
+             version <= WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+            SQLiteDatabase oldDb = openDatabase();
+            WeatherDbHelper.createAtVersion(oldDb, version);
+            oldDb.setVersion(version);
+            fill(oldDb);
+            oldDb.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            long start = SystemClock.elapsedRealtime();
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            long upgradeMillis = SystemClock.elapsedRealtime() - start;
+            Log.i(LOG_TAG, "Upgrade from version " + version + " of " + LOCATIONS * DAYS_PER_LOCATION
+                    + " rows took " + upgradeMillis + " ms");
+
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: Locations lost upgrading from version " + version,
+                    LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: Weather lost upgrading from version " + version,
+                    LOCATIONS * DAYS_PER_LOCATION,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+            assertEquals("Error: Upgrading from version " + version
+                    + " doesn't give the fresh schema", freshSchema, readSchema(db));
+            assertTrue("Error: Upgrading from version " + version + " took " + upgradeMillis
+                    + " ms", upgradeMillis < UPGRADE_BUDGET_MILLIS);
+
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, null,
+                    WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{"1"},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord("Error: Row changed upgrading from version "
+                    + version, cursor, createWeatherValues(1, 0));
+            cursor.close();
+            dbHelper.close();
+        }
+    }
+
+    public void testUpgradeFromBeforeBaselineRebuilds() {
+        SQLiteDatabase oldDb = openDatabase();
+        oldDb.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (_id INTEGER PRIMARY KEY)");
+        oldDb.setVersion(WeatherDbHelper.BASELINE_VERSION - 1);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(readFreshSchema(), readSchema(db));
+        dbHelper.close();
+    }
+
+    private SQLiteDatabase openDatabase() {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(path, null);
+    }
+
+    private static List<String> readFreshSchema() {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        WeatherDbHelper.createAtVersion(db, WeatherDbHelper.DATABASE_VERSION);
+        List<String> schema = readSchema(db);
+        db.close();
+        return schema;
+    }
+
+    private static List<String> readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'"
+                + " ORDER BY type, name", null);
+        List<String> schema = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": "
+                    + cursor.getString(2));
+        }
+        cursor.close();
+        return schema;
+    }
+
+    private static void fill(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(LocationEntry._ID, location);
+                locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + location);
+                locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + location);
+                locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+                locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+                assertTrue(db.insert(LocationEntry.TABLE_NAME, null, locationValues) != -1);
+
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    assertTrue(db.insert(WeatherEntry.TABLE_NAME, null,
+                            createWeatherValues(location, day)) != -1);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues createWeatherValues(long locationId, int day) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE) + day * MILLISECONDS_IN_A_DAY);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - day);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return weatherValues;
+    }
+}
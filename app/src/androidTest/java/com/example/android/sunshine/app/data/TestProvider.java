@@ -16,6 +16,7 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -30,6 +31,9 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +516,220 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testBulkInsertOnlyWritesChanges() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                bulkInsertContentValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] ids = readWeatherIds();
+
+        // The same forecast again shouldn't write anything, nor churn the row ids
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: Identical rows should not be written again", 0, insertCount);
+        assertTrue("Error: Identical rows were replaced", Arrays.equals(ids, readWeatherIds()));
+
+        // Change two days and add a new one at the end
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[0].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        ContentValues newDay = new ContentValues(changedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE
+                + BULK_INSERT_RECORDS_TO_INSERT * 1000L * 60 * 60 * 24);
+        changedValues = Arrays.copyOf(changedValues, BULK_INSERT_RECORDS_TO_INSERT + 1);
+        changedValues[BULK_INSERT_RECORDS_TO_INSERT] = newDay;
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                changedValues);
+        assertEquals("Error: Only the changed and the new rows should be written", 3, insertCount);
+
+        long[] newIds = readWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, newIds.length);
+        assertTrue("Error: Updated rows should keep their ids",
+                Arrays.equals(ids, Arrays.copyOf(newIds, BULK_INSERT_RECORDS_TO_INSERT)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        cursor.moveToFirst();
+        for ( int i = 0; i < changedValues.length; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testBulkInsertOnlyWritesChanges.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    public void testMultipleLocationsQuery() {
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        long northPoleId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, northPole));
+
+        ContentValues southPole = new ContentValues(northPole);
+        southPole.put(LocationEntry.COLUMN_LOCATION_SETTING, "south pole");
+        southPole.put(LocationEntry.COLUMN_CITY_NAME, "South Pole");
+        long southPoleId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, southPole));
+
+        ContentValues otherPlace = new ContentValues(northPole);
+        otherPlace.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        long otherPlaceId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherPlace));
+
+        // Every location gets the same days in one bulk insert, like a multi-city sync
+        ContentValues[] northPoleValues = createBulkInsertWeatherValues(northPoleId);
+        ContentValues[] southPoleValues = createBulkInsertWeatherValues(southPoleId);
+        ContentValues[] otherPlaceValues = createBulkInsertWeatherValues(otherPlaceId);
+        ContentValues[] allValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT * 3];
+        System.arraycopy(northPoleValues, 0, allValues, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        System.arraycopy(southPoleValues, 0, allValues, BULK_INSERT_RECORDS_TO_INSERT,
+                BULK_INSERT_RECORDS_TO_INSERT);
+        System.arraycopy(otherPlaceValues, 0, allValues, BULK_INSERT_RECORDS_TO_INSERT * 2,
+                BULK_INSERT_RECORDS_TO_INSERT);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT * 3,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, allValues));
+
+        // Two of the three locations, from the third day on
+        long startDate = northPoleValues[2].getAsLong(WeatherEntry.COLUMN_DATE);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocations(
+                        Arrays.asList(TestUtilities.TEST_LOCATION, "south pole"), startDate),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null
+        );
+
+        int daysPerLocation = BULK_INSERT_RECORDS_TO_INSERT - 2;
+        assertEquals("Error: Expected the days of both locations", daysPerLocation * 2,
+                cursor.getCount());
+        // sorted by location, then by date
+        for (int i = 0; cursor.moveToNext(); i++) {
+            String expectedLocation = i < daysPerLocation ? TestUtilities.TEST_LOCATION : "south pole";
+            ContentValues[] expectedValues = i < daysPerLocation ? northPoleValues : southPoleValues;
+            assertEquals(expectedLocation, cursor.getString(0));
+            assertEquals(expectedValues[2 + i % daysPerLocation].getAsLong(WeatherEntry.COLUMN_DATE),
+                    Long.valueOf(cursor.getLong(1)));
+        }
+
+        if ( Build.VERSION.SDK_INT >= 19 ) {
+            assertEquals("Error: Multiple locations query did not properly set NotificationUri",
+                    cursor.getNotificationUri(), WeatherEntry.CONTENT_URI);
+        }
+        cursor.close();
+    }
+
+    public void testMultipleLocationsQueryWithoutLocations() {
+        try {
+            mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocations(Collections.<String>emptyList(), 0),
+                    null,
+                    null,
+                    null,
+                    null
+            );
+            fail("Error: A multiple locations query without any location should be refused");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testSnapshotCache() {
+        // getLocalContentProvider is API 11+
+        if ( Build.VERSION.SDK_INT < 11 ) {
+            return;
+        }
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        ForecastSnapshotCache cache =
+                ((WeatherProvider) client.getLocalContentProvider()).getSnapshotCache();
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulkInsertContentValues);
+
+        String[] projection = {
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                WeatherEntry.COLUMN_DATE,
+                WeatherEntry.COLUMN_SHORT_DESC,
+                WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherEntry.COLUMN_MIN_TEMP,
+                LocationEntry.COLUMN_LOCATION_SETTING,
+                WeatherEntry.COLUMN_WEATHER_ID
+        };
+        long startDate = bulkInsertContentValues[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        Uri startDateUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, startDate);
+
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        Cursor first = mContext.getContentResolver().query(startDateUri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor second = mContext.getContentResolver().query(startDateUri, projection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The first query should load the snapshot", misses + 1,
+                cache.getMissCount());
+        assertEquals("Error: The second query should be served from memory", hits + 1,
+                cache.getHitCount());
+
+        // same rows as the database gives
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 3, first.getCount());
+        assertEquals(first.getCount(), second.getCount());
+        for (int i = 3; second.moveToNext(); i++) {
+            assertEquals(TestUtilities.TEST_LOCATION, second.getString(5));
+            assertEquals(bulkInsertContentValues[i].getAsLong(WeatherEntry.COLUMN_DATE),
+                    Long.valueOf(second.getLong(1)));
+            assertEquals(bulkInsertContentValues[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    second.getDouble(3), 0.0);
+        }
+        first.close();
+        second.close();
+
+        // a single day is served from the same snapshot
+        Cursor day = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, startDate),
+                projection, null, null, null);
+        assertEquals(1, day.getCount());
+        assertEquals(hits + 2, cache.getHitCount());
+        day.close();
+
+        // a write must never leave a stale snapshot behind
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changedValues);
+        Cursor updated = mContext.getContentResolver().query(startDateUri, projection, null, null,
+                null);
+        assertTrue(updated.moveToFirst());
+        assertEquals("Error: The snapshot was not invalidated by bulkInsert",
+                99.0, updated.getDouble(3), 0.0);
+        assertEquals(misses + 2, cache.getMissCount());
+        updated.close();
+
+        client.release();
+    }
+
+    private long[] readWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
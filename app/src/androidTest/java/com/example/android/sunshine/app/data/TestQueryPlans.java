@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN on every query shape the provider and the sync adapter issue, and
+    fails if any of them has to scan a whole table instead of searching an index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // What the forecast list and the widgets ask for
+    private static final String[] LIST_PROJECTION = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String DATE_ASC = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWeatherByLocationSetting() {
+        assertSearches("weather/*", buildJoinQuery(WeatherProvider.sLocationSettingSelection,
+                DATE_ASC), "94043");
+    }
+
+    public void testWeatherByLocationSettingWithStartDate() {
+        assertSearches("weather/*?date=",
+                buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection, DATE_ASC),
+                "94043", "1419033600000");
+    }
+
+    public void testWeatherByLocationSettingAndDate() {
+        assertSearches("weather/*/#",
+                buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection, null),
+                "94043", "1419033600000");
+    }
+
+    public void testWeatherByLocationSettings() {
+        assertSearches("weather_locations",
+                buildJoinQuery(WeatherProvider.buildLocationSettingsSelection(3, false),
+                        WeatherProvider.sLocationSettingsSortOrder),
+                "94043", "London, UK", "Paris, FR");
+        assertSearches("weather_locations?date=",
+                buildJoinQuery(WeatherProvider.buildLocationSettingsSelection(3, true),
+                        WeatherProvider.sLocationSettingsSortOrder),
+                "94043", "London, UK", "Paris, FR", "1419033600000");
+    }
+
+    public void testBulkWriterWindow() {
+        assertSearches("bulk insert window",
+                "SELECT * FROM " + WeatherEntry.TABLE_NAME + " WHERE "
+                        + WeatherBulkWriter.sLocationAndDateRangeSelection,
+                "1", "1419033600000", "1420243200000");
+    }
+
+    public void testOldWeatherCleanup() {
+        // the sync adapter deletes everything up to yesterday through the weather uri
+        assertSearches("weather, date <= ?",
+                "SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME
+                        + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                "1419033600000");
+    }
+
+    public void testLocationBySetting() {
+        // SunshineSyncAdapter.addLocation
+        assertSearches("location, location_setting = ?",
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                        + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                "94043");
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String buildJoinQuery(String selection, String sortOrder) {
+        // the selectionArgs parameter of buildQuery is ignored, and the overload without it is
+        // API 11+
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(LIST_PROJECTION,
+                selection, null, null, null, sortOrder, null);
+    }
+
+    private void assertSearches(String shape, String sql, String... selectionArgs) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        int detailIndex = plan.getColumnIndex("detail");
+        assertTrue("Error: No query plan for " + shape, plan.getCount() > 0);
+        StringBuilder details = new StringBuilder();
+        while (plan.moveToNext()) {
+            String detail = plan.getString(detailIndex);
+            details.append(detail).append("; ");
+            // older SQLite versions say "SCAN TABLE x", newer ones just "SCAN x"
+            assertFalse("Error: " + shape + " scans a whole table: " + detail,
+                    detail.startsWith("SCAN"));
+        }
+        plan.close();
+        Log.i(LOG_TAG, shape + ": " + details);
+    }
+}
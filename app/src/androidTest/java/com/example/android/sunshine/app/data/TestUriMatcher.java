@@ -19,6 +19,8 @@ import android.content.UriMatcher;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 
+import java.util.Arrays;
+
 /*
     Uncomment this class when you are ready to test your UriMatcher.  Note that this class utilizes
     constants that are declared with package protection inside of the UriMatcher, which is why
@@ -34,6 +36,9 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    // content://com.example.android.sunshine.app/weather_locations?location_setting=..."
+    private static final Uri TEST_WEATHER_WITH_LOCATIONS_DIR = WeatherContract.WeatherEntry.buildWeatherLocations(
+            Arrays.asList(LOCATION_QUERY, "Paris, FR"), TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
 
@@ -51,6 +56,8 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATIONS_DIR), WeatherProvider.WEATHER_WITH_LOCATIONS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
     }
@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs the sync adapter's LocationFetch against a small stand-in for the OWM server that
+    honours If-None-Match, and checks that the cache turns unchanged forecasts into skipped syncs.
+ */
+public class TestForecastHttpCache extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+    private static final int JULIAN_DAY = 2457024;
+    private static final String ETAG = "\"forecast-1\"";
+
+    private File mCacheFile;
+    private StandInServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheFile = new File(mContext.getCacheDir(), ForecastHttpCache.FILE_NAME);
+        mCacheFile.delete();
+        mServer = new StandInServer(TestForecastJsonParser.createForecastJson(14));
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.close();
+        mCacheFile.delete();
+        super.tearDown();
+    }
+
+    public void testNotModifiedIsSkipped() throws Throwable {
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheFile);
+
+        // first sync: nothing cached, the server sends the full forecast
+        assertTrue("Error: The first forecast should be stored", sync(cache, true));
+        assertNull("Error: The first request should be unconditional",
+                mServer.getLastIfNoneMatch());
+
+        // second sync: the stored ETag is sent and the server answers 304
+        assertFalse(sync(cache, true));
+        assertEquals(ETAG, mServer.getLastIfNoneMatch());
+        assertEquals(1, cache.getSkippedSyncCount());
+
+        // validators must survive a process restart
+        ForecastHttpCache reloaded = new ForecastHttpCache(mCacheFile);
+        assertFalse(sync(reloaded, true));
+        assertEquals(2, reloaded.getSkippedSyncCount());
+
+        // without the stored forecast the request has to be unconditional again
+        assertTrue(sync(reloaded, false));
+        assertNull(mServer.getLastIfNoneMatch());
+    }
+
+    public void testIdenticalBodyIsSkipped() throws Throwable {
+        // a server without validators, so only the body hash can tell the forecast is the same
+        mServer.setSendEtag(false);
+        ForecastHttpCache cache = new ForecastHttpCache(mCacheFile);
+
+        assertTrue(sync(cache, true));
+        assertFalse("Error: The same body should not be stored again", sync(cache, true));
+        assertEquals(1, cache.getSkippedSyncCount());
+
+        // the same body fetched on another day is a new forecast
+        HttpURLConnection urlConnection = cache.open(mServer.getUrl(), TEST_LOCATION,
+                JULIAN_DAY + 1, true);
+        String hash = readHash(urlConnection);
+        urlConnection.disconnect();
+        assertFalse(cache.isUnchanged(TEST_LOCATION, JULIAN_DAY + 1, hash));
+    }
+
+    /*
+        Runs the fetch of one location the way SunshineSyncAdapter does, storing the forecast
+        when the fetch says so, and returns whether it did.
+     */
+    private boolean sync(ForecastHttpCache cache, boolean hasStoredForecast) throws Exception {
+        SunshineSyncAdapter.LocationFetch fetch = new SunshineSyncAdapter.LocationFetch(
+                mServer.getUrl(), TEST_LOCATION, JULIAN_DAY, hasStoredForecast, cache).call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        if (fetch.forecast == null) {
+            return false;
+        }
+        // the forecast itself goes to the database, which isn't part of this test
+        fetch.onStored();
+        return true;
+    }
+
+    private static String readHash(HttpURLConnection urlConnection) throws IOException {
+        DigestInputStream in = ForecastHttpCache.digest(urlConnection.getInputStream());
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // only hashing
+        }
+        in.close();
+        return ForecastHttpCache.toHex(in.getMessageDigest().digest());
+    }
+
+    /*
+        Minimal HTTP/1.0 server answering every request with the same forecast.
+     */
+    static class StandInServer extends Thread {
+        private final ServerSocket mServerSocket;
+        private final byte[] mBody;
+        private final List<String> mIfNoneMatch = new ArrayList<String>();
+        private volatile boolean mSendEtag = true;
+
+        StandInServer(String body) throws IOException {
+            mServerSocket = new ServerSocket(0, 5, InetAddress.getByName("127.0.0.1"));
+            mBody = body.getBytes("UTF-8");
+        }
+
+        URL getUrl() throws IOException {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + "/forecast");
+        }
+
+        void setSendEtag(boolean sendEtag) {
+            mSendEtag = sendEtag;
+        }
+
+        synchronized String getLastIfNoneMatch() {
+            return mIfNoneMatch.isEmpty() ? null : mIfNoneMatch.get(mIfNoneMatch.size() - 1);
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    Socket socket = mServerSocket.accept();
+                    try {
+                        serve(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+            String ifNoneMatch = null;
+            String line;
+            while ((line = reader.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("If-None-Match")) {
+                    ifNoneMatch = line.substring(colon + 1).trim();
+                }
+            }
+            synchronized (this) {
+                mIfNoneMatch.add(ifNoneMatch);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (mSendEtag && ETAG.equals(ifNoneMatch)) {
+                out.write(("HTTP/1.0 304 Not Modified\r\nETag: " + ETAG + "\r\n\r\n")
+                        .getBytes("US-ASCII"));
+            } else {
+                StringBuilder headers = new StringBuilder("HTTP/1.0 200 OK\r\n")
+                        .append("Content-Type: application/json\r\n")
+                        .append("Content-Length: ").append(mBody.length).append("\r\n");
+                if (mSendEtag) {
+                    headers.append("ETag: ").append(ETAG).append("\r\n");
+                }
+                headers.append("\r\n");
+                out.write(headers.toString().getBytes("US-ASCII"));
+                out.write(mBody);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/*
+    Checks that the streaming forecast parser decodes the same rows as the JSONObject one and
+    rejects the same incomplete days, and benchmarks both on a synthetic 16 day payload shaped
+    like the OWM daily forecast response.  The benchmark reports the bytes each parse allocates
+    in total, not the peak heap it needs.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int JULIAN_START_DAY = 2457024; // January 1st, 2015
+    private static final int PAYLOAD_DAYS = 16;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        Builds a response with every field OWM sends for a daily forecast, not only the ones we
+        keep, so that the parsers have to skip as much as they would on a real payload.
+     */
+    static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days)
+                .append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,"
+                            + "\"night\":%.2f,\"eve\":%.2f,\"morn\":%.2f},"
+                            + "\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clouds\","
+                            + "\"description\":\"scattered clouds\",\"icon\":\"03d\"}],"
+                            + "\"speed\":%.2f,\"deg\":%d,\"clouds\":%d,\"rain\":%.2f}",
+                    1420142400L + i * 86400L,
+                    18.5 + i, 9.25 + i * 0.5, 21.75 + i * 0.25,
+                    11.0, 15.5, 10.25,
+                    1012.5 - i, 60 + i,
+                    800 + (i % 5),
+                    3.5 + i * 0.1, 180 + i, 40, 0.25));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public void testStreamingMatchesJsonObject() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String json = createForecastJson(PAYLOAD_DAYS);
+
+        ForecastJsonParser.Forecast expected =
+                ForecastJsonParser.parseJsonObject(json, JULIAN_START_DAY);
+        ForecastJsonParser.Forecast actual = ForecastJsonParser.parseStream(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), JULIAN_START_DAY);
+
+        assertEquals(expected.code, actual.code);
+        assertEquals(expected.cityName, actual.cityName);
+        assertEquals(expected.cityLatitude, actual.cityLatitude, 0.0);
+        assertEquals(expected.cityLongitude, actual.cityLongitude, 0.0);
+        assertEquals(PAYLOAD_DAYS, actual.days.size());
+
+        for (int i = 0; i < PAYLOAD_DAYS; i++) {
+            ContentValues expectedDay = expected.days.get(i);
+            ContentValues actualDay = actual.days.get(i);
+            assertEquals("Error: Day " + i + " does not have the same columns",
+                    expectedDay.size(), actualDay.size());
+            for (String column : expectedDay.keySet()) {
+                assertEquals("Error: Column " + column + " differs for day " + i,
+                        expectedDay.getAsString(column), actualDay.getAsString(column));
+            }
+        }
+        assertEquals(800L, (long) actual.days.get(0).getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+    }
+
+    public void testIncompleteDayIsRejected() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String json = createForecastJson(PAYLOAD_DAYS);
+        String[] truncations = {",\"deg\":180", "\"max\":21.75,", "\"id\":800,"};
+
+        for (String truncation : truncations) {
+            assertTrue(json.contains(truncation));
+            // only the first day loses the field
+            String truncated = json.replaceFirst(Pattern.quote(truncation), "");
+            try {
+                ForecastJsonParser.parseJsonObject(truncated, JULIAN_START_DAY);
+                fail("Error: The JSONObject parser accepted a day without " + truncation);
+            } catch (JSONException expected) {
+            }
+            try {
+                ForecastJsonParser.parseStream(
+                        new ByteArrayInputStream(truncated.getBytes("UTF-8")), JULIAN_START_DAY);
+                fail("Error: The streaming parser accepted a day without " + truncation);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testErrorCodeIsReported() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        ForecastJsonParser.Forecast forecast = ForecastJsonParser.parseStream(
+                new ByteArrayInputStream(json.getBytes("UTF-8")), JULIAN_START_DAY);
+        assertEquals(404, forecast.code);
+        assertEquals(0, forecast.days.size());
+    }
+
+    public void testParserBenchmark() throws Throwable {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        byte[] payload = createForecastJson(PAYLOAD_DAYS).getBytes("UTF-8");
+
+        // warm up both paths so that we are not measuring class loading
+        runJsonObject(payload, 10);
+        runStreaming(payload, 10);
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        runJsonObject(payload, BENCHMARK_ITERATIONS);
+        long jsonObjectNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int jsonObjectBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        runStreaming(payload, BENCHMARK_ITERATIONS);
+        long streamingNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int streamingBytes = Debug.getThreadAllocSize();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d byte payload, %d iterations. JSONObject: %d us/parse, "
+                        + "%d bytes allocated/parse. Streaming: %d us/parse, "
+                        + "%d bytes allocated/parse.",
+                payload.length, BENCHMARK_ITERATIONS,
+                jsonObjectNanos / BENCHMARK_ITERATIONS / 1000,
+                jsonObjectBytes / BENCHMARK_ITERATIONS,
+                streamingNanos / BENCHMARK_ITERATIONS / 1000,
+                streamingBytes / BENCHMARK_ITERATIONS));
+
+        assertTrue("Error: The streaming parser allocates more than the JSONObject one",
+                streamingBytes < jsonObjectBytes);
+    }
+
+    private static void runJsonObject(byte[] payload, int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            // this mirrors the old sync path: buffer the body, then build the tree
+            InputStream in = new ByteArrayInputStream(payload);
+            ForecastJsonParser.parseJsonObject(ForecastJsonParser.readFully(in), JULIAN_START_DAY);
+        }
+    }
+
+    private static void runStreaming(byte[] payload, int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            ForecastJsonParser.parseStream(new ByteArrayInputStream(payload), JULIAN_START_DAY);
+        }
+    }
+}
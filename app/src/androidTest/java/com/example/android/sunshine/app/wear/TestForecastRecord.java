@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.wear;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+    Round trips the forecast record sent to the watch, and compares its size with the DataMap
+    it replaces.
+ */
+public class TestForecastRecord extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastRecord.class.getSimpleName();
+
+    private static final int FIRST_JULIAN_DAY = 2457023;
+    private static final String CLEAR_HASH = "0123456789abcdef0123456789abcdef";
+    private static final String RAIN_HASH = "fedcba9876543210fedcba9876543210";
+
+    public void testRoundTrip() {
+        ForecastRecord record = new ForecastRecord(true,
+                new int[]{FIRST_JULIAN_DAY, FIRST_JULIAN_DAY + 1, FIRST_JULIAN_DAY + 3},
+                new int[]{800, 501, 211},
+                new int[]{ForecastRecord.toTenths(21.46), ForecastRecord.toTenths(-0.04), -401},
+                new int[]{ForecastRecord.toTenths(12.5), -125, Integer.MIN_VALUE},
+                new String[]{CLEAR_HASH, RAIN_HASH, null});
+
+        ForecastRecord decoded = ForecastRecord.decode(record.encode());
+
+        assertTrue(decoded.isImperial());
+        assertEquals(3, decoded.getDayCount());
+        for (int day = 0; day < 3; day++) {
+            assertEquals(record.getJulianDay(day), decoded.getJulianDay(day));
+            assertEquals(record.getWeatherId(day), decoded.getWeatherId(day));
+            assertEquals(record.getHigh(day), decoded.getHigh(day));
+            assertEquals(record.getLow(day), decoded.getLow(day));
+            assertEquals(record.getIconHash(day), decoded.getIconHash(day));
+        }
+        assertEquals(215, decoded.getHigh(0));
+        assertEquals(0, decoded.getHigh(1));
+        assertEquals(2, decoded.indexOfJulianDay(FIRST_JULIAN_DAY + 3));
+        assertEquals(-1, decoded.indexOfJulianDay(FIRST_JULIAN_DAY + 2));
+    }
+
+    public void testEmptyRoundTrip() {
+        ForecastRecord decoded = ForecastRecord.decode(new ForecastRecord(false, new int[0],
+                new int[0], new int[0], new int[0], new String[0]).encode());
+        assertFalse(decoded.isImperial());
+        assertEquals(0, decoded.getDayCount());
+    }
+
+    public void testRejectsBadRecords() {
+        byte[] bytes = createWeek().encode();
+
+        byte[] newerVersion = bytes.clone();
+        newerVersion[0] = ForecastRecord.VERSION + 1;
+        assertRejected("a newer version", newerVersion);
+
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected("a record truncated to " + length + " bytes",
+                    Arrays.copyOf(bytes, length));
+        }
+    }
+
+    public void testSizeAgainstDataMap() {
+        ForecastRecord week = createWeek();
+        int recordBytes = week.encode().length;
+
+        // what was sent before: one day, as preformatted strings
+        DataMap oneDay = createOldDataMap(week, 0);
+        int oneDayBytes = oneDay.toByteArray().length;
+
+        // and the same week sent the old way, one such map per day
+        DataMap weekMap = new DataMap();
+        ArrayList<DataMap> days = new ArrayList<>();
+        for (int day = 0; day < week.getDayCount(); day++) {
+            days.add(createOldDataMap(week, day));
+        }
+        weekMap.putDataMapArrayList("FORECAST_DAYS", days);
+        int weekMapBytes = weekMap.toByteArray().length;
+
+        Log.i(LOG_TAG, "Forecast record: " + recordBytes + " bytes for " + week.getDayCount()
+                + " days. DataMap: " + oneDayBytes + " bytes for one day, " + weekMapBytes
+                + " bytes for " + week.getDayCount() + " days");
+        assertTrue("Error: The record should be smaller than the DataMap of the same days",
+                recordBytes < weekMapBytes);
+    }
+
+    private static void assertRejected(String what, byte[] bytes) {
+        try {
+            ForecastRecord.decode(bytes);
+            fail("Error: Decoded " + what);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static ForecastRecord createWeek() {
+        int[] julianDays = new int[7];
+        int[] weatherIds = new int[7];
+        int[] highs = new int[7];
+        int[] lows = new int[7];
+        String[] iconHashes = new String[7];
+        for (int day = 0; day < 7; day++) {
+            julianDays[day] = FIRST_JULIAN_DAY + day;
+            weatherIds[day] = day % 2 == 0 ? 800 : 501;
+            highs[day] = 215 + day * 7;
+            lows[day] = -35 + day * 11;
+            iconHashes[day] = day % 2 == 0 ? CLEAR_HASH : RAIN_HASH;
+        }
+        return new ForecastRecord(false, julianDays, weatherIds, highs, lows, iconHashes);
+    }
+
+    private static DataMap createOldDataMap(ForecastRecord record, int day) {
+        DataMap dataMap = new DataMap();
+        dataMap.putString("FORECAST_HIGH_KEY", Math.round(record.getHigh(day) / 10.0) + "\u00B0");
+        dataMap.putString("FORECAST_LOW_KEY", Math.round(record.getLow(day) / 10.0) + "\u00B0");
+        dataMap.putString("FORECAST_ICON_HASH_KEY", record.getIconHash(day));
+        dataMap.putLong("FORECAST_DATE_KEY", 1419033600000L + day * 86400000L);
+        return dataMap;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.wear;
+
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Sends bursts of forecast requests through the coalescer, the way several watches or a retry
+    loop would, and counts the pushes they turn into.
+ */
+public class TestWearRequestCoalescer extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWearRequestCoalescer.class.getSimpleName();
+
+    private static final long WINDOW_MILLIS = 200;
+    private static final long NODE_INTERVAL_MILLIS = 1000;
+    private static final String[] NODES = {"watch-1", "watch-2", "watch-3"};
+
+    private HandlerThread mThread;
+    private WearRequestCoalescer mCoalescer;
+    private final AtomicInteger mPushes = new AtomicInteger();
+    // when set, pushes finish only once the test says so
+    private volatile boolean mHoldPushes;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mCoalescer = new WearRequestCoalescer(new WearRequestCoalescer.Pusher() {
+            @Override
+            public void push() {
+                mPushes.incrementAndGet();
+                if (!mHoldPushes) {
+                    mCoalescer.onPushFinished();
+                }
+            }
+        }, mThread.getLooper(), WINDOW_MILLIS, NODE_INTERVAL_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testBurstIsOnePush() throws Exception {
+        sendBurst(100);
+        waitForPushes(1);
+        Thread.sleep(WINDOW_MILLIS * 2);
+
+        Log.i(LOG_TAG, "Burst of 100 requests from " + NODES.length + " watches: " + mCoalescer);
+        assertEquals("Error: A burst should be pushed once", 1, mPushes.get());
+        assertEquals(NODES.length - 1, mCoalescer.getCollapsedCount());
+        assertEquals(100 - NODES.length, mCoalescer.getRateLimitedCount());
+    }
+
+    public void testNodeIsRateLimited() throws Exception {
+        mCoalescer.onRequest(NODES[0]);
+        waitForPushes(1);
+
+        // the push is done, but the watch asked too recently
+        mCoalescer.onRequest(NODES[0]);
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertEquals("Error: A watch asking again right away shouldn't get a push",
+                1, mPushes.get());
+
+        // another watch isn't held back by it
+        mCoalescer.onRequest(NODES[1]);
+        waitForPushes(2);
+
+        Thread.sleep(NODE_INTERVAL_MILLIS);
+        mCoalescer.onRequest(NODES[0]);
+        waitForPushes(3);
+    }
+
+    public void testRequestsShareTheRunningPush() throws Exception {
+        mHoldPushes = true;
+        mCoalescer.onRequest(NODES[0]);
+        waitForPushes(1);
+
+        mCoalescer.onRequest(NODES[1]);
+        mCoalescer.onRequest(NODES[2]);
+        Thread.sleep(WINDOW_MILLIS * 2);
+        assertEquals("Error: Requests made during a push should share it", 1, mPushes.get());
+
+        mCoalescer.onPushFinished();
+        Thread.sleep(NODE_INTERVAL_MILLIS);
+        mCoalescer.onRequest(NODES[1]);
+        waitForPushes(2);
+    }
+
+    public void testSamePayloadIsSuppressed() {
+        assertTrue(mCoalescer.shouldPush("payload-1"));
+        // a failed push doesn't count
+        assertTrue(mCoalescer.shouldPush("payload-1"));
+        mCoalescer.onPushSucceeded("payload-1");
+
+        assertFalse("Error: The payload the watch has shouldn't be pushed again",
+                mCoalescer.shouldPush("payload-1"));
+        assertTrue(mCoalescer.shouldPush("payload-2"));
+        assertEquals(1, mCoalescer.getSuppressedCount());
+    }
+
+    private void sendBurst(int requests) {
+        for (int i = 0; i < requests; i++) {
+            mCoalescer.onRequest(NODES[i % NODES.length]);
+        }
+    }
+
+    private void waitForPushes(final int pushes) throws Exception {
+        PollingCheck.check("Error: Expected " + pushes + " pushes",
+                WINDOW_MILLIS * 10, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return mPushes.get() >= pushes;
+                    }
+                });
+        assertEquals(pushes, mPushes.get());
+    }
+}
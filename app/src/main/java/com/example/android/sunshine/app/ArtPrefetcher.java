@@ -0,0 +1,290 @@
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.DrawableRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.load.resource.drawable.GlideDrawable;
+import com.bumptech.glide.request.FutureTarget;
+import com.bumptech.glide.request.RequestListener;
+import com.bumptech.glide.request.target.Target;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Loads the weather art of a remote art pack at the exact size each surface shows it, and warms
+ * Glide's caches with all of it after a sync or an art pack change.
+ *
+ * Glide keys its memory cache on the size, the transformation and what the image is decoded to,
+ * so every surface builds its requests here, the same way the prefetch does: an explicit size,
+ * fit center, and both the source and the result kept on disk.  A pack only has a few pictures,
+ * so the prefetch takes all of them rather than the ones the forecast needs today.  Loads are
+ * counted per surface, with how many were served from the memory cache.
+ */
+public class ArtPrefetcher {
+    private static final String LOG_TAG = ArtPrefetcher.class.getSimpleName();
+
+    public static final int SURFACE_LIST = 0;
+    public static final int SURFACE_TODAY = 1;
+    public static final int SURFACE_DETAIL = 2;
+    public static final int SURFACE_WIDGET = 3;
+    public static final int SURFACE_NOTIFICATION = 4;
+    static final int SURFACE_COUNT = 5;
+
+    private static final String[] SURFACE_NAMES = {
+            "list", "today", "detail", "widget", "notification"
+    };
+    // the views take drawables, the widget and the notification bitmaps
+    private static final boolean[] SURFACE_BITMAP = {false, false, false, true, true};
+
+    private static ArtPrefetcher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final int[] mWidths = new int[SURFACE_COUNT];
+    private final int[] mHeights = new int[SURFACE_COUNT];
+    private final List<SurfaceListener<GlideDrawable>> mDrawableListeners = new ArrayList<>();
+    private final List<SurfaceListener<Bitmap>> mBitmapListeners = new ArrayList<>();
+
+    // guarded by this
+    private final int[] mLoads = new int[SURFACE_COUNT];
+    private final int[] mMemoryHits = new int[SURFACE_COUNT];
+    private final int[] mFailures = new int[SURFACE_COUNT];
+    private int mPrefetchCount;
+
+    private final Runnable mPrefetchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            prefetchNow();
+        }
+    };
+
+    /**
+     * Counts the loads of one surface.  Never consumes the event.
+     */
+    private class SurfaceListener<R> implements RequestListener<String, R> {
+        private final int mSurface;
+
+        SurfaceListener(int surface) {
+            mSurface = surface;
+        }
+
+        @Override
+        public boolean onException(Exception e, String model, Target<R> target,
+                                   boolean isFirstResource) {
+            onLoadFailed(mSurface);
+            return false;
+        }
+
+        @Override
+        public boolean onResourceReady(R resource, String model, Target<R> target,
+                                       boolean isFromMemoryCache, boolean isFirstResource) {
+            onLoaded(mSurface, isFromMemoryCache);
+            return false;
+        }
+    }
+
+    public static synchronized ArtPrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtPrefetcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ArtPrefetcher(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        Resources resources = context.getResources();
+        int listIcon = resources.getDimensionPixelSize(R.dimen.list_icon);
+        int todayIcon = resources.getDimensionPixelSize(R.dimen.today_icon);
+        setSize(SURFACE_LIST, listIcon, listIcon);
+        setSize(SURFACE_TODAY, todayIcon, todayIcon);
+        setSize(SURFACE_DETAIL, todayIcon, todayIcon);
+        setSize(SURFACE_WIDGET, listIcon, listIcon);
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        setSize(SURFACE_NOTIFICATION, largeIconWidth, largeIconHeight);
+
+        for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+            mDrawableListeners.add(new SurfaceListener<GlideDrawable>(surface));
+            mBitmapListeners.add(new SurfaceListener<Bitmap>(surface));
+        }
+    }
+
+    private void setSize(int surface, int width, int height) {
+        mWidths[surface] = width;
+        mHeights[surface] = height;
+    }
+
+    public int getWidth(int surface) {
+        return mWidths[surface];
+    }
+
+    public int getHeight(int surface) {
+        return mHeights[surface];
+    }
+
+    /**
+     * Starts the art load of a surface that shows it in an ImageView.
+     */
+    public DrawableRequestBuilder<String> load(RequestManager glide, int surface, String artUrl) {
+        return glide.load(artUrl)
+                .override(mWidths[surface], mHeights[surface])
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .listener(mDrawableListeners.get(surface));
+    }
+
+    /**
+     * Starts the art load of a surface that takes it as a Bitmap, to get with
+     * into(getWidth(surface), getHeight(surface)).
+     */
+    public BitmapRequestBuilder<String, Bitmap> loadBitmap(RequestManager glide, int surface,
+                                                          String artUrl) {
+        return glide.load(artUrl)
+                .asBitmap()
+                .override(mWidths[surface], mHeights[surface])
+                .fitCenter()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .listener(mBitmapListeners.get(surface));
+    }
+
+    /**
+     * Warms the caches with the art of the current pack, on a background thread.  Collapses
+     * with a prefetch still waiting to run.
+     */
+    public void prefetch() {
+        mHandler.removeCallbacks(mPrefetchRunnable);
+        mHandler.post(mPrefetchRunnable);
+    }
+
+    /**
+     * @return whether the surface shows the art of the current pack, so that it needs
+     * prefetching.
+     */
+    boolean isShowingArt(int surface) {
+        if (surface == SURFACE_NOTIFICATION) {
+            // the notification always takes its large icon from the art pack
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            return prefs.getBoolean(mContext.getString(R.string.pref_enable_notifications_key),
+                    Boolean.parseBoolean(
+                            mContext.getString(R.string.pref_enable_notifications_default)));
+        }
+        return !Utility.usingLocalGraphics(mContext);
+    }
+
+    private void prefetchNow() {
+        long start = SystemClock.elapsedRealtime();
+        // the art pack may have just changed, before WeatherConditions heard of it
+        WeatherConditions.clearArtUrls();
+        List<String> artUrls = WeatherConditions.getAllArtUrls(mContext);
+        RequestManager glide = Glide.with(mContext);
+        int warmed = 0;
+        int failed = 0;
+
+        for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+            if (!isShowingArt(surface)) {
+                continue;
+            }
+            for (String artUrl : artUrls) {
+                // the same requests as the surface, without its listener
+                FutureTarget<?> target = SURFACE_BITMAP[surface]
+                        ? loadBitmap(glide, surface, artUrl).listener(null)
+                                .into(mWidths[surface], mHeights[surface])
+                        : load(glide, surface, artUrl).listener(null)
+                                .into(mWidths[surface], mHeights[surface]);
+                try {
+                    target.get();
+                    warmed++;
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.w(LOG_TAG, "Error prefetching " + artUrl + " for the "
+                            + SURFACE_NAMES[surface], e);
+                    failed++;
+                } finally {
+                    // releases the image into the memory cache
+                    Glide.clear(target);
+                }
+            }
+        }
+
+        synchronized (this) {
+            mPrefetchCount++;
+        }
+        Log.d(LOG_TAG, "Prefetched " + warmed + " images of " + artUrls.size() + " pictures in "
+                + (SystemClock.elapsedRealtime() - start) + " ms, " + failed + " failed. "
+                + this);
+    }
+
+    synchronized void onLoaded(int surface, boolean fromMemoryCache) {
+        mLoads[surface]++;
+        if (fromMemoryCache) {
+            mMemoryHits[surface]++;
+        }
+    }
+
+    synchronized void onLoadFailed(int surface) {
+        mLoads[surface]++;
+        mFailures[surface]++;
+    }
+
+    /**
+     * @return the share of the surface's loads served from the memory cache, 0 before any.
+     */
+    public synchronized float getMemoryHitRate(int surface) {
+        return mLoads[surface] == 0 ? 0 : (float) mMemoryHits[surface] / mLoads[surface];
+    }
+
+    public synchronized int getLoadCount(int surface) {
+        return mLoads[surface];
+    }
+
+    /**
+     * Forgets the counts, for tests.
+     */
+    synchronized void clearCounts() {
+        for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+            mLoads[surface] = 0;
+            mMemoryHits[surface] = 0;
+            mFailures[surface] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mPrefetchCount).append(" prefetches, memory hits:");
+        for (int surface = 0; surface < SURFACE_COUNT; surface++) {
+            sb.append(String.format(Locale.US, " %s %d/%d (%d failed)", SURFACE_NAMES[surface],
+                    mMemoryHits[surface], mLoads[surface], mFailures[surface]));
+        }
+        return sb.toString();
+    }
+}
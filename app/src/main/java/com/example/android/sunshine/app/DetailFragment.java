@@ -204,8 +204,9 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
                 mIconView.setImageResource(Utility.getArtResourceForWeatherCondition(weatherId));
             } else {
                 // Use weather art image
-                Glide.with(this)
-                        .load(Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
+                ArtPrefetcher.getInstance(getActivity())
+                        .load(Glide.with(this), ArtPrefetcher.SURFACE_DETAIL,
+                                Utility.getArtUrlForWeatherCondition(getActivity(), weatherId))
                         .error(Utility.getArtResourceForWeatherCondition(weatherId))
                         .crossFade()
                         .into(mIconView);
@@ -30,11 +30,15 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
  * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * Rows are bound from the ForecastRows formatted along with the cursor, see
+ * {@link ForecastRowLoader}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -45,6 +49,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    private List<ForecastRow> mRows = Collections.emptyList();
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +78,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
@@ -124,63 +127,53 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        ForecastRow row = mRows.get(position);
         int defaultImage;
-        boolean useLongToday;
+        String day;
+        int surface;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = row.artResource;
+                day = row.longDay;
+                surface = ArtPrefetcher.SURFACE_TODAY;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = row.iconResource;
+                day = row.day;
+                surface = ArtPrefetcher.SURFACE_LIST;
         }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.artUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
-            Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+            ArtPrefetcher.getInstance(mContext)
+                    .load(Glide.with(mContext), surface, row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
         // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        // the animator can use this to re-find the original view.  Named after the row rather
+        // than its position, which changes without a rebind when rows move.
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView,
+                "iconView" + row.getKey());
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(day);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.high);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.low);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,13 +201,28 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mRows.size();
     }
 
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
-        notifyDataSetChanged();
+        if (newCursor instanceof ForecastRowLoader.RowCursor) {
+            ForecastRowLoader.RowCursor rowCursor = (ForecastRowLoader.RowCursor) newCursor;
+            List<ForecastRow> oldRows = mRows;
+            mRows = rowCursor.getRows();
+            ForecastRowDiff diff = rowCursor.getDiffFrom(oldRows);
+            if (mRows == oldRows) {
+                // the same load delivered again
+            } else if (diff != null) {
+                diff.dispatchTo(this);
+            } else {
+                notifyDataSetChanged();
+            }
+        } else {
+            // not from the loader, format the rows here
+            mRows = ForecastRow.fromCursor(mContext, newCursor);
+            notifyDataSetChanged();
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
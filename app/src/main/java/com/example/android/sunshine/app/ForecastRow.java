@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One row of the forecast list with everything it shows already formatted, so that binding it
+ * only hands strings and resource ids to views.  Built off the main thread by the
+ * ForecastRowLoader, once per data change.
+ *
+ * A row is the same row from one load to the next if it has the same location and date, see
+ * {@link ForecastRowDiff}.
+ */
+class ForecastRow {
+
+    final String locationSetting;
+    final long date;
+    final int weatherId;
+    private final String mKey;
+
+    // the art is shown in the today layout, the icon in the others
+    final int artResource;
+    final int iconResource;
+    // null when the local graphics are used
+    final String artUrl;
+
+    final String longDay;
+    final String day;
+    final String description;
+    final String descriptionA11y;
+    final String high;
+    final String highA11y;
+    final String low;
+    final String lowA11y;
+
+    private ForecastRow(Context context, Cursor cursor, boolean localGraphics) {
+        locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        mKey = locationSetting + '|' + date;
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        longDay = Utility.getFriendlyDayString(context, date, true);
+        day = Utility.getFriendlyDayString(context, date, false);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        high = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, high);
+        low = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, low);
+    }
+
+    String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return whether binding either row shows the same thing.
+     */
+    boolean hasSameContent(ForecastRow other) {
+        return weatherId == other.weatherId
+                && artResource == other.artResource
+                && iconResource == other.iconResource
+                && equals(artUrl, other.artUrl)
+                && longDay.equals(other.longDay)
+                && day.equals(other.day)
+                && description.equals(other.description)
+                && high.equals(other.high)
+                && low.equals(other.low);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @param cursor with the columns of ForecastFragment.FORECAST_COLUMNS, left before its
+     *               first row.
+     */
+    static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        List<ForecastRow> rows = new ArrayList<>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(context, cursor, localGraphics));
+        }
+        cursor.moveToPosition(-1);
+        return Collections.unmodifiableList(rows);
+    }
+}
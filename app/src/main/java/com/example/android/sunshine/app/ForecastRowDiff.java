@@ -0,0 +1,138 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The removals, insertions, moves and changes that turn one list of ForecastRows into another,
+ * matching rows by location and date, so that a new delivery of the same forecast rebinds
+ * nothing and a new day only rebinds the rows that show something else.
+ *
+ * Computed on the loader thread, dispatched to the adapter on the main thread.  The operations
+ * are in the order RecyclerView applies them, each position relative to the list as the
+ * previous operations left it.
+ */
+class ForecastRowDiff {
+
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    private final List<int[]> mOps = new ArrayList<>();
+    private int mRebindCount;
+
+    private ForecastRowDiff() {
+    }
+
+    static ForecastRowDiff compute(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        ForecastRowDiff diff = new ForecastRowDiff();
+
+        Map<String, Integer> oldIndexes = new HashMap<>();
+        for (int i = 0; i < oldRows.size(); i++) {
+            oldIndexes.put(oldRows.get(i).getKey(), i);
+        }
+        Set<String> newKeys = new HashSet<>();
+        for (ForecastRow row : newRows) {
+            newKeys.add(row.getKey());
+        }
+
+        // removals, from the end so that each leaves the positions before it alone
+        for (int i = oldRows.size() - 1; i >= 0; i--) {
+            if (!newKeys.contains(oldRows.get(i).getKey())) {
+                diff.add(REMOVE, i, 1);
+            }
+        }
+        List<String> keys = new ArrayList<>();
+        for (ForecastRow row : oldRows) {
+            if (newKeys.contains(row.getKey())) {
+                keys.add(row.getKey());
+            }
+        }
+
+        // then insertions and moves, putting each position right in turn
+        for (int i = 0; i < newRows.size(); i++) {
+            String key = newRows.get(i).getKey();
+            if (i < keys.size() && keys.get(i).equals(key)) {
+                continue;
+            }
+            int from = keys.indexOf(key);
+            if (from == -1) {
+                diff.add(INSERT, i, 1);
+                diff.mRebindCount++;
+            } else {
+                keys.remove(from);
+                diff.add(MOVE, from, i);
+            }
+            keys.add(i, key);
+        }
+
+        // and the rows that stayed but show something else, or moved in or out of the first
+        // position, which has its own layout
+        for (int i = 0; i < newRows.size(); i++) {
+            ForecastRow row = newRows.get(i);
+            Integer oldIndex = oldIndexes.get(row.getKey());
+            if (oldIndex != null && (!row.hasSameContent(oldRows.get(oldIndex))
+                    || (i == 0) != (oldIndex == 0))) {
+                diff.add(CHANGE, i, 1);
+                diff.mRebindCount++;
+            }
+        }
+        return diff;
+    }
+
+    void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int[] op : mOps) {
+            switch (op[0]) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(op[1], op[2]);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(op[1], op[2]);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(op[1], op[2]);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(op[1], op[2]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the rows dispatching this diff binds: the inserted and the changed ones.
+     */
+    int getRebindCount() {
+        return mRebindCount;
+    }
+
+    int getOperationCount() {
+        return mOps.size();
+    }
+
+    /**
+     * Adds the operation, or extends the previous one if it's the same kind and runs into it.
+     */
+    private void add(int type, int position, int countOrTo) {
+        int[] last = mOps.isEmpty() ? null : mOps.get(mOps.size() - 1);
+        if (last != null && last[0] == type) {
+            if (type == REMOVE && position == last[1] - 1) {
+                last[1] = position;
+                last[2]++;
+                return;
+            }
+            if ((type == INSERT || type == CHANGE) && position == last[1] + last[2]) {
+                last[2]++;
+                return;
+            }
+        }
+        mOps.add(new int[]{type, position, countOrTo});
+    }
+}
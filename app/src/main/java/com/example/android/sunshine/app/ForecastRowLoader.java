@@ -0,0 +1,72 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import java.util.List;
+
+/**
+ * Loads the forecast cursor like a CursorLoader, and turns it into ForecastRows on the same
+ * background thread, along with the diff from the rows it loaded before.  The rows travel with
+ * the cursor, which the list still keeps for what it reads besides the rows.
+ */
+class ForecastRowLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, with its rows.
+     */
+    static class RowCursor extends CursorWrapper {
+        private final List<ForecastRow> mRows;
+        private final List<ForecastRow> mPreviousRows;
+        private final ForecastRowDiff mDiff;
+
+        RowCursor(Cursor cursor, List<ForecastRow> rows) {
+            this(cursor, rows, null, null);
+        }
+
+        RowCursor(Cursor cursor, List<ForecastRow> rows, List<ForecastRow> previousRows,
+                  ForecastRowDiff diff) {
+            super(cursor);
+            mRows = rows;
+            mPreviousRows = previousRows;
+            mDiff = diff;
+        }
+
+        List<ForecastRow> getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the diff to these rows from the given ones, or null if it wasn't computed
+         * from them, e.g. because the list missed a load.
+         */
+        ForecastRowDiff getDiffFrom(List<ForecastRow> rows) {
+            return rows == mPreviousRows ? mDiff : null;
+        }
+    }
+
+    // only touched on the loading thread
+    private List<ForecastRow> mLastRows;
+
+    ForecastRowLoader(Context context, Uri uri, String[] projection, String selection,
+                      String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        List<ForecastRow> rows = ForecastRow.fromCursor(getContext(), cursor);
+        List<ForecastRow> previousRows = mLastRows;
+        ForecastRowDiff diff = previousRows == null
+                ? null : ForecastRowDiff.compute(previousRows, rows);
+        mLastRows = rows;
+        return new RowCursor(cursor, rows, previousRows, diff);
+    }
+}
@@ -28,8 +28,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  The selected
+ * positions follow the items through the insertions, removals and moves the adapter notifies,
+ * as the rows on screen do; a full data set change only keeps them if the ids are stable.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,8 +45,28 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            remapCheckedPositions(INSERTED, positionStart, itemCount, 0);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            remapCheckedPositions(REMOVED, positionStart, itemCount, 0);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            // RecyclerView only moves one item at a time
+            remapCheckedPositions(MOVED, fromPosition, 1, toPosition);
+        }
     };
 
+    private static final int INSERTED = 0;
+    private static final int REMOVED = 1;
+    private static final int MOVED = 2;
+
     private ItemChoiceManager() {
     }
 
@@ -53,6 +74,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -188,6 +210,52 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Moves the checked positions along with their items, unchecking the removed ones.
+     */
+    void remapCheckedPositions(int change, int start, int count, int to) {
+        SparseBooleanArray checkStates = new SparseBooleanArray();
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = getNewPosition(mCheckStates.keyAt(i), change, start, count, to);
+            if (position != RecyclerView.NO_POSITION) {
+                checkStates.put(position, mCheckStates.valueAt(i));
+            }
+        }
+        mCheckStates = checkStates;
+
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = getNewPosition(mCheckedIdStates.valueAt(i), change, start, count, to);
+            if (position == RecyclerView.NO_POSITION) {
+                mCheckedIdStates.removeAt(i);
+            } else {
+                mCheckedIdStates.setValueAt(i, position);
+            }
+        }
+    }
+
+    private static int getNewPosition(int position, int change, int start, int count, int to) {
+        switch (change) {
+            case INSERTED:
+                return position >= start ? position + count : position;
+            case REMOVED:
+                if (position < start) {
+                    return position;
+                }
+                return position < start + count ? RecyclerView.NO_POSITION : position - count;
+            default:
+                if (position == start) {
+                    return to;
+                }
+                if (start < to && position > start && position <= to) {
+                    return position - 1;
+                }
+                if (to < start && position >= to && position < start) {
+                    return position + 1;
+                }
+                return position;
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
@@ -145,6 +145,7 @@ public class SettingsActivity extends PreferenceActivity
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
+            ArtPrefetcher.getInstance(this).prefetch();
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
         }
     }
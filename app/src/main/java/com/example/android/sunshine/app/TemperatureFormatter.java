@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Locale;
+
+/**
+ * Formats temperatures the way {@link Utility#formatTemperature(Context, double)} always has,
+ * without reading the preferences or running String.format on every call.
+ *
+ * The units and the locale's format string are kept in a snapshot, dropped when the units
+ * preference or the default locale changes.  Every temperature is shown rounded to a whole
+ * degree, and the few hundred whole degrees a forecast can show are formatted once each and
+ * then handed out as the same String.  Safe to use from any thread.
+ */
+public class TemperatureFormatter implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    // Whole degrees kept, in the units shown, which covers -73..65 Celsius in either units
+    static final int MIN_CACHED = -100;
+    static final int MAX_CACHED = 150;
+
+    private static TemperatureFormatter sInstance;
+
+    private final Context mContext;
+    private final String mUnitsKey;
+    private volatile Snapshot mSnapshot;
+
+    private static class Snapshot {
+        final boolean metric;
+        final Locale locale;
+        final String format;
+        // filled as needed; racing threads format the same String, whichever is kept is fine
+        final String[] degrees = new String[MAX_CACHED - MIN_CACHED + 1];
+        String negativeZero;
+
+        Snapshot(boolean metric, Locale locale, String format) {
+            this.metric = metric;
+            this.locale = locale;
+            this.format = format;
+        }
+    }
+
+    public static synchronized TemperatureFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TemperatureFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TemperatureFormatter(Context context) {
+        mContext = context;
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        // the preferences only keep a weak reference to the listener, the instance is static
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (mUnitsKey.equals(key)) {
+            mSnapshot = null;
+        }
+    }
+
+    /**
+     * @param temperature in degrees Celsius, as the database stores it.
+     */
+    public String format(double temperature) {
+        Snapshot snapshot = getSnapshot();
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!snapshot.metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.  Rounds half
+        // away from zero like String.format, a - degrees is exact for any temperature.
+        double abs = Math.abs(temperature);
+        long degrees = (long) abs;
+        if (abs - degrees >= 0.5) {
+            degrees++;
+        }
+        boolean negative = temperature < 0 || (temperature == 0 && 1 / temperature < 0);
+        if (negative) {
+            degrees = -degrees;
+        }
+
+        if (degrees < MIN_CACHED || degrees > MAX_CACHED) {
+            return String.format(snapshot.locale, snapshot.format, temperature);
+        }
+        if (degrees == 0 && negative) {
+            // String.format keeps the sign of a value that rounds to zero
+            if (snapshot.negativeZero == null) {
+                snapshot.negativeZero = String.format(snapshot.locale, snapshot.format, -0.0);
+            }
+            return snapshot.negativeZero;
+        }
+        int index = (int) degrees - MIN_CACHED;
+        String formatted = snapshot.degrees[index];
+        if (formatted == null) {
+            formatted = String.format(snapshot.locale, snapshot.format, (double) degrees);
+            snapshot.degrees[index] = formatted;
+        }
+        return formatted;
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        Locale locale = Locale.getDefault();
+        if (snapshot == null || !snapshot.locale.equals(locale)) {
+            snapshot = new Snapshot(Utility.isMetric(mContext), locale,
+                    mContext.getString(R.string.format_temperature));
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+}
@@ -15,32 +15,92 @@
  */
 package com.example.android.sunshine.app;
 
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
+import android.util.Log;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.wearable.Asset;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Locale;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Utility {
+    private static final String LOG_TAG = Utility.class.getSimpleName();
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * The locations whose forecast the sync adapter keeps up to date: the preferred location
+     * first, followed by the other tracked locations.
+     */
+    public static List<String> getTrackedLocations(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String tracked = prefs.getString(context.getString(R.string.pref_tracked_locations_key),
+                null);
+
+        List<String> locations = new ArrayList<>();
+        locations.add(getPreferredLocation(context));
+        if (tracked == null) {
+            return locations;
+        }
+        // StringSet preferences are API 11+, and a location like "London,uk" has commas in
+        // it, so the list is stored as a JSON array
+        try {
+            JSONArray trackedArray = new JSONArray(tracked);
+            for (int i = 0; i < trackedArray.length(); i++) {
+                String location = trackedArray.getString(i).trim();
+                if (location.length() > 0 && !locations.contains(location)) {
+                    locations.add(location);
+                }
+            }
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable tracked locations: " + tracked, e);
+        }
+        return locations;
+    }
+
+    /**
+     * Replaces the locations synced besides the preferred one.
+     */
+    public static void setTrackedLocations(Context context, List<String> locations) {
+        JSONArray trackedArray = new JSONArray();
+        for (String location : locations) {
+            trackedArray.put(location);
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_tracked_locations_key),
+                        trackedArray.toString())
+                .commit();
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -48,16 +108,12 @@ public class Utility {
                 .equals(context.getString(R.string.pref_units_metric));
     }
 
+    /**
+     * Formats a temperature stored in Celsius in the units the user prefers, see
+     * {@link TemperatureFormatter}.
+     */
     public static String formatTemperature(Context context, double temperature) {
-        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
-        // the values here.
-        String suffix = "\u00B0";
-        if (!isMetric(context)) {
-            temperature = (temperature * 1.8) + 32;
-        }
-
-        // For presentation, assume the user doesn't care about tenths of a degree.
-        return String.format(context.getString(R.string.format_temperature), temperature);
+        return TemperatureFormatter.getInstance(context).format(temperature);
     }
 
     static String formatDate(long dateInMilliseconds) {
@@ -212,32 +268,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return WeatherConditions.getIconResource(weatherId);
     }
 
     /**
@@ -262,36 +293,7 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
-                context.getString(R.string.pref_art_pack_sunshine));
-
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
-        }
-        return null;
+        return WeatherConditions.getArtUrl(context, weatherId);
     }
 
     /**
@@ -301,32 +303,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return WeatherConditions.getArtResource(weatherId);
     }
 
     /**
@@ -337,174 +314,7 @@ public class Utility {
      * @return string for the weather condition. null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
-        }
-        return context.getString(stringId);
+        return WeatherConditions.getString(context, weatherId);
     }
 
     /*
@@ -515,32 +325,7 @@ public class Utility {
      * @return A string URL to an appropriate image or null if no mapping is found
      */
     public static String getImageUrlForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId == 511) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
-        } else if (weatherId == 761 || weatherId == 781) {
-            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
-        } else if (weatherId == 800) {
-            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
-        } else if (weatherId == 801) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
-        }
-        return null;
+        return WeatherConditions.getImageUrl(weatherId);
     }
 
     /**
@@ -581,15 +366,62 @@ public class Utility {
         spe.apply();
     }
 
+    // The art sent to the wearable, encoded ahead of time by prewarmAssets
+    private static final int[] WEAR_ART_RESOURCES = {
+            R.drawable.art_clear,
+            R.drawable.art_clouds,
+            R.drawable.art_fog,
+            R.drawable.art_light_clouds,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_storm
+    };
+
+    // PNG encoded art keyed by density in the high bits and resource id in the low ones
+    private static final Map<Long, byte[]> sAssetBytes = new HashMap<>();
+    private static boolean sTrimCallbacksRegistered;
+
+    /**
+     * Creates an Asset with the resource encoded as a PNG.  The encoding is only done once per
+     * resource and screen density, later calls reuse the bytes until memory runs low.
+     */
     public static Asset createAsset(int resourceId, Context context) {
-        Bitmap bitmapResource = BitmapFactory.decodeResource(context.getResources(), resourceId);
+        return Asset.createFromBytes(getAssetBytes(resourceId, context));
+    }
+
+    static byte[] getAssetBytes(int resourceId, Context context) {
+        Resources resources = context.getResources();
+        long key = ((long) resources.getDisplayMetrics().densityDpi << 32)
+                | (resourceId & 0xffffffffL);
+        synchronized (sAssetBytes) {
+            byte[] bytes = sAssetBytes.get(key);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+
+        // encoded outside the lock, two threads may both encode the same resource the first time
+        byte[] bytes = encodeAsset(resources, resourceId);
+        synchronized (sAssetBytes) {
+            sAssetBytes.put(key, bytes);
+            registerTrimCallbacks(context);
+        }
+        return bytes;
+    }
+
+    private static byte[] encodeAsset(Resources resources, int resourceId) {
+        Bitmap bitmapResource = BitmapFactory.decodeResource(resources, resourceId);
         ByteArrayOutputStream byteStream = null;
         try {
-            byteStream = new ByteArrayOutputStream();
+            // PNG art compresses to well under a quarter of its pixels
+            byteStream = new ByteArrayOutputStream(
+                    bitmapResource.getRowBytes() * bitmapResource.getHeight() / 4);
             bitmapResource.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
 
-            return Asset.createFromBytes(byteStream.toByteArray());
+            return byteStream.toByteArray();
         } finally {
+            bitmapResource.recycle();
             if (null != byteStream) {
                 try {
                     byteStream.close();
@@ -597,4 +429,64 @@ public class Utility {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Encodes the wearable art on a background thread, so that the first forecast sent to the
+     * watch doesn't pay for it on the sync thread.
+     */
+    public static void prewarmAssets(Context context) {
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (int resourceId : WEAR_ART_RESOURCES) {
+                    getAssetBytes(resourceId, appContext);
+                }
+            }
+        }, "AssetPrewarm").start();
+    }
+
+    static void clearAssetCache() {
+        synchronized (sAssetBytes) {
+            sAssetBytes.clear();
+        }
+    }
+
+    /*
+        There's no Application class, so the cache listens to the application context itself.
+        onTrimMemory is API 14+, older devices keep the few hundred KB of art for the process
+        lifetime.
+     */
+    private static void registerTrimCallbacks(Context context) {
+        if (sTrimCallbacksRegistered
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        sTrimCallbacksRegistered = true;
+        registerTrimCallbacksIcs(context.getApplicationContext());
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static void registerTrimCallbacksIcs(Context appContext) {
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                // leaving the UI alone is not a reason to drop them, the next sync needs them
+                if (level >= TRIM_MEMORY_BACKGROUND
+                        || (level >= TRIM_MEMORY_RUNNING_LOW && level < TRIM_MEMORY_UI_HIDDEN)) {
+                    clearAssetCache();
+                }
+            }
+
+            @Override
+            public void onLowMemory() {
+                clearAssetCache();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        });
+    }
+}
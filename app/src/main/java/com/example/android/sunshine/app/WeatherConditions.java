@@ -0,0 +1,280 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * What the app shows for each OpenWeatherMap condition id, looked up in tables indexed by the id
+ * instead of walking range checks on every bind.  Backs the ...ForWeatherCondition helpers of
+ * Utility, which keep their exact results, quirks included: 761 is fog, 762 and 771 have no
+ * icon.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+class WeatherConditions {
+
+    static final int MIN_ID = 200;
+    static final int MAX_ID = 962;
+
+    private static final int NONE = -1;
+
+    // The kinds of art, each with its icon, its art and its names in the art packs
+    private static final int STORM = 0;
+    private static final int LIGHT_RAIN = 1;
+    private static final int RAIN = 2;
+    private static final int SNOW = 3;
+    private static final int FOG = 4;
+    private static final int DUST = 5;
+    private static final int CLEAR = 6;
+    private static final int LIGHT_CLOUDS = 7;
+    private static final int CLOUDS = 8;
+    private static final int KIND_COUNT = 9;
+
+    private static final int[] ICONS = new int[KIND_COUNT];
+    private static final int[] ART = new int[KIND_COUNT];
+    private static final String[] ART_SLUGS = new String[KIND_COUNT];
+    private static final String[] IMAGE_URLS = new String[KIND_COUNT];
+
+    // by id - MIN_ID
+    private static final byte[] KINDS = new byte[MAX_ID - MIN_ID + 1];
+    private static final int[] STRINGS = new int[MAX_ID - MIN_ID + 1];
+
+    static {
+        kind(STORM, R.drawable.ic_storm, R.drawable.art_storm, "storm",
+                "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg");
+        kind(LIGHT_RAIN, R.drawable.ic_light_rain, R.drawable.art_light_rain, "light_rain",
+                "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg");
+        kind(RAIN, R.drawable.ic_rain, R.drawable.art_rain, "rain",
+                "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg");
+        kind(SNOW, R.drawable.ic_snow, R.drawable.art_snow, "snow",
+                "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG");
+        kind(FOG, R.drawable.ic_fog, R.drawable.art_fog, "fog",
+                "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg");
+        // the storm art, but a picture of its dust
+        kind(DUST, R.drawable.ic_storm, R.drawable.art_storm, "storm",
+                "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg");
+        kind(CLEAR, R.drawable.ic_clear, R.drawable.art_clear, "clear",
+                "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg");
+        kind(LIGHT_CLOUDS, R.drawable.ic_light_clouds, R.drawable.art_light_clouds, "light_clouds",
+                "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg");
+        kind(CLOUDS, R.drawable.ic_cloudy, R.drawable.art_clouds, "clouds",
+                "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+
+        for (int i = 0; i < KINDS.length; i++) {
+            KINDS[i] = NONE;
+        }
+        // in the order the old checks ran, a range doesn't take the ids of an earlier one
+        kinds(200, 232, STORM);
+        kinds(300, 321, LIGHT_RAIN);
+        kinds(500, 504, RAIN);
+        kinds(511, 511, SNOW);
+        kinds(520, 531, RAIN);
+        kinds(600, 622, SNOW);
+        kinds(701, 761, FOG);
+        kinds(761, 761, DUST);
+        kinds(781, 781, DUST);
+        kinds(800, 800, CLEAR);
+        kinds(801, 801, LIGHT_CLOUDS);
+        kinds(802, 804, CLOUDS);
+
+        for (int i = 0; i < STRINGS.length; i++) {
+            STRINGS[i] = NONE;
+        }
+        strings(200, 232, R.string.condition_2xx);
+        strings(300, 321, R.string.condition_3xx);
+        string(500, R.string.condition_500);
+        string(501, R.string.condition_501);
+        string(502, R.string.condition_502);
+        string(503, R.string.condition_503);
+        string(504, R.string.condition_504);
+        string(511, R.string.condition_511);
+        string(520, R.string.condition_520);
+        string(531, R.string.condition_531);
+        string(600, R.string.condition_600);
+        string(601, R.string.condition_601);
+        string(602, R.string.condition_602);
+        string(611, R.string.condition_611);
+        string(612, R.string.condition_612);
+        string(615, R.string.condition_615);
+        string(616, R.string.condition_616);
+        string(620, R.string.condition_620);
+        string(621, R.string.condition_621);
+        string(622, R.string.condition_622);
+        string(701, R.string.condition_701);
+        string(711, R.string.condition_711);
+        string(721, R.string.condition_721);
+        string(731, R.string.condition_731);
+        string(741, R.string.condition_741);
+        string(751, R.string.condition_751);
+        string(761, R.string.condition_761);
+        string(762, R.string.condition_762);
+        string(771, R.string.condition_771);
+        string(781, R.string.condition_781);
+        string(800, R.string.condition_800);
+        string(801, R.string.condition_801);
+        string(802, R.string.condition_802);
+        string(803, R.string.condition_803);
+        string(804, R.string.condition_804);
+        string(900, R.string.condition_900);
+        string(901, R.string.condition_901);
+        string(902, R.string.condition_902);
+        string(903, R.string.condition_903);
+        string(904, R.string.condition_904);
+        string(905, R.string.condition_905);
+        string(906, R.string.condition_906);
+        string(951, R.string.condition_951);
+        string(952, R.string.condition_952);
+        string(953, R.string.condition_953);
+        string(954, R.string.condition_954);
+        string(955, R.string.condition_955);
+        string(956, R.string.condition_956);
+        string(957, R.string.condition_957);
+        string(958, R.string.condition_958);
+        string(959, R.string.condition_959);
+        string(960, R.string.condition_960);
+        string(961, R.string.condition_961);
+        string(962, R.string.condition_962);
+    }
+
+    /**
+     * The art URLs of one art pack, by kind, formatted as they're first asked for.
+     */
+    private static class ArtUrls {
+        final String format;
+        final String[] urls = new String[KIND_COUNT];
+
+        ArtUrls(String format) {
+            this.format = format;
+        }
+    }
+
+    private static volatile ArtUrls sArtUrls;
+
+    // the preferences only keep a weak reference to their listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sArtPackListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    // any preference, the few URLs are cheap to format again
+                    sArtUrls = null;
+                }
+            };
+    private static boolean sListening;
+
+    private static void kind(int kind, int icon, int art, String artSlug, String imageUrl) {
+        ICONS[kind] = icon;
+        ART[kind] = art;
+        ART_SLUGS[kind] = artSlug;
+        IMAGE_URLS[kind] = imageUrl;
+    }
+
+    private static void kinds(int firstId, int lastId, int kind) {
+        for (int id = firstId; id <= lastId; id++) {
+            if (KINDS[id - MIN_ID] == NONE) {
+                KINDS[id - MIN_ID] = (byte) kind;
+            }
+        }
+    }
+
+    private static void strings(int firstId, int lastId, int stringId) {
+        for (int id = firstId; id <= lastId; id++) {
+            STRINGS[id - MIN_ID] = stringId;
+        }
+    }
+
+    private static void string(int id, int stringId) {
+        STRINGS[id - MIN_ID] = stringId;
+    }
+
+    private static int getKind(int weatherId) {
+        if (weatherId < MIN_ID || weatherId > MAX_ID) {
+            return NONE;
+        }
+        return KINDS[weatherId - MIN_ID];
+    }
+
+    static int getIconResource(int weatherId) {
+        int kind = getKind(weatherId);
+        return kind == NONE ? -1 : ICONS[kind];
+    }
+
+    static int getArtResource(int weatherId) {
+        int kind = getKind(weatherId);
+        return kind == NONE ? -1 : ART[kind];
+    }
+
+    static String getImageUrl(int weatherId) {
+        int kind = getKind(weatherId);
+        return kind == NONE ? null : IMAGE_URLS[kind];
+    }
+
+    static String getArtUrl(Context context, int weatherId) {
+        int kind = getKind(weatherId);
+        if (kind == NONE) {
+            return null;
+        }
+        return getArtUrlOfKind(context, kind);
+    }
+
+    private static String getArtUrlOfKind(Context context, int kind) {
+        ArtUrls artUrls = getArtUrls(context);
+        String url = artUrls.urls[kind];
+        if (url == null) {
+            url = String.format(Locale.US, artUrls.format, ART_SLUGS[kind]);
+            artUrls.urls[kind] = url;
+        }
+        return url;
+    }
+
+    /**
+     * @return the art URLs of the current art pack, each picture once.
+     */
+    static List<String> getAllArtUrls(Context context) {
+        Set<String> urls = new LinkedHashSet<>();
+        for (int kind = 0; kind < KIND_COUNT; kind++) {
+            urls.add(getArtUrlOfKind(context, kind));
+        }
+        return new ArrayList<>(urls);
+    }
+
+    static String getString(Context context, int weatherId) {
+        int stringId = weatherId < MIN_ID || weatherId > MAX_ID
+                ? NONE : STRINGS[weatherId - MIN_ID];
+        if (stringId == NONE) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    /**
+     * Forgets the art URLs, for a preference change the listener hasn't been told about yet.
+     */
+    static void clearArtUrls() {
+        sArtUrls = null;
+    }
+
+    private static ArtUrls getArtUrls(Context context) {
+        ArtUrls artUrls = sArtUrls;
+        if (artUrls == null) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            synchronized (WeatherConditions.class) {
+                if (!sListening) {
+                    prefs.registerOnSharedPreferenceChangeListener(sArtPackListener);
+                    sListening = true;
+                }
+            }
+            artUrls = new ArtUrls(prefs.getString(context.getString(R.string.pref_art_pack_key),
+                    context.getString(R.string.pref_art_pack_sunshine)));
+            sArtUrls = artUrls;
+        }
+        return artUrls;
+    }
+}
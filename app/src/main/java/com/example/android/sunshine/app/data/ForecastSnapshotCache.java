@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the whole stored forecast of each recently queried location in memory, so that the
+ * widgets, Muzei, the wearable, the notification and the forecast list asking for the same
+ * location after a sync are served without running the join again.
+ *
+ * A snapshot is immutable once built.  Any write to the provider invalidates every snapshot at
+ * once, and a snapshot read before a write committed is never stored after it.
+ *
+ * Only the query shapes the app itself uses are served: an explicit projection of plain
+ * columns, in date order.  Anything else returns null and goes to the database.
+ */
+class ForecastSnapshotCache {
+
+    // Everything the weather INNER JOIN location can return for a location, except location._id
+    // which is the same as weather.location_id
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_SHORT_DESC = 3;
+    private static final int COL_WEATHER_ID = 4;
+    private static final int COL_LOCATION_SETTING = 11;
+    private static final int COL_CITY_NAME = 12;
+
+    // unqualified column name -> index in SNAPSHOT_COLUMNS
+    private static final Map<String, Integer> sColumnIndexes = new HashMap<>();
+
+    static {
+        for (int i = 0; i < SNAPSHOT_COLUMNS.length; i++) {
+            sColumnIndexes.put(unqualified(SNAPSHOT_COLUMNS[i]), i);
+        }
+    }
+
+    private static final String SNAPSHOT_SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * The stored forecast of one location, in date order.
+     */
+    private static final class Snapshot {
+        final long[] dates;
+        final Object[][] rows;
+
+        Snapshot(long[] dates, Object[][] rows) {
+            this.dates = dates;
+            this.rows = rows;
+        }
+    }
+
+    private final Map<String, Snapshot> mSnapshots = new HashMap<>();
+    // Bumped by every invalidation, so that a snapshot read before a write is not stored after
+    private long mGeneration;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Serves a query for a location's forecast, from a day on or for a single day, from memory,
+     * loading the location's snapshot first if needed.
+     *
+     * @param startDate the first day to return, or 0 for all of them.
+     * @param exactDate the only day to return, or 0.
+     * @return the rows, or null if the query doesn't have a shape we can serve.
+     */
+    Cursor query(SQLiteDatabase db, String locationSetting, long startDate, long exactDate,
+                 String[] projection, String sortOrder) {
+        int[] columns = mapProjection(projection);
+        if (columns == null || !isDateOrder(sortOrder)) {
+            return null;
+        }
+
+        Snapshot snapshot;
+        long generation;
+        synchronized (this) {
+            snapshot = mSnapshots.get(locationSetting);
+            generation = mGeneration;
+        }
+        if (snapshot == null) {
+            mMisses.incrementAndGet();
+            snapshot = load(db, locationSetting);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mSnapshots.put(locationSetting, snapshot);
+                }
+            }
+        } else {
+            mHits.incrementAndGet();
+        }
+
+        String[] columnNames = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnNames[i] = unqualified(projection[i]);
+        }
+        MatrixCursor cursor = new MatrixCursor(columnNames, snapshot.rows.length);
+        for (int row = 0; row < snapshot.rows.length; row++) {
+            long date = snapshot.dates[row];
+            if ((exactDate != 0 && date != exactDate) || date < startDate) {
+                continue;
+            }
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = snapshot.rows[row][columns[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Drops every snapshot.  Called after each write to the provider.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mSnapshots.clear();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return mHits.get() + " hits, " + mMisses.get() + " misses";
+    }
+
+    private static Snapshot load(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                SNAPSHOT_COLUMNS,
+                WeatherProvider.sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                SNAPSHOT_SORT_ORDER);
+        try {
+            long[] dates = new long[cursor.getCount()];
+            Object[][] rows = new Object[cursor.getCount()][];
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[SNAPSHOT_COLUMNS.length];
+                for (int i = 0; i < SNAPSHOT_COLUMNS.length; i++) {
+                    values[i] = readValue(cursor, i);
+                }
+                dates[row] = cursor.getLong(COL_DATE);
+                rows[row] = values;
+            }
+            return new Snapshot(dates, rows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Cursor.getType is API 11+, so the types come from the schema: integers, text, and reals
+        for everything else.
+     */
+    private static Object readValue(Cursor cursor, int column) {
+        if (cursor.isNull(column)) {
+            return null;
+        }
+        switch (column) {
+            case COL_ID:
+            case COL_LOC_KEY:
+            case COL_DATE:
+            case COL_WEATHER_ID:
+                return cursor.getLong(column);
+            case COL_SHORT_DESC:
+            case COL_LOCATION_SETTING:
+            case COL_CITY_NAME:
+                return cursor.getString(column);
+            default:
+                return cursor.getDouble(column);
+        }
+    }
+
+    /**
+     * @return the snapshot index of every projected column, or null if one of them isn't a
+     * plain column we keep.
+     */
+    private static int[] mapProjection(String[] projection) {
+        if (projection == null) {
+            // the join has two _id columns, leave that to SQLite
+            return null;
+        }
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            String column = projection[i];
+            Integer index;
+            if (column.equals(LocationEntry.TABLE_NAME + "." + LocationEntry._ID)) {
+                index = COL_LOC_KEY;
+            } else if (column.equals(WeatherEntry._ID)) {
+                // ambiguous in the join
+                return null;
+            } else {
+                int dot = column.indexOf('.');
+                if (dot != -1 && !column.substring(0, dot).equals(WeatherEntry.TABLE_NAME)
+                        && !column.substring(0, dot).equals(LocationEntry.TABLE_NAME)) {
+                    return null;
+                }
+                index = sColumnIndexes.get(unqualified(column));
+            }
+            if (index == null) {
+                return null;
+            }
+            columns[i] = index;
+        }
+        return columns;
+    }
+
+    private static boolean isDateOrder(String sortOrder) {
+        if (sortOrder == null) {
+            return true;
+        }
+        String order = sortOrder.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+        return order.equals(WeatherEntry.COLUMN_DATE + " asc")
+                || order.equals(WeatherEntry.COLUMN_DATE)
+                || order.equals(WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " asc");
+    }
+
+    private static String unqualified(String column) {
+        return column.substring(column.indexOf('.') + 1);
+    }
+}
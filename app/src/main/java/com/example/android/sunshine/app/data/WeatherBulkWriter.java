@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a batch of forecast rows by diffing it against what is already stored, instead of
+ * letting the UNIQUE (date, location_id) ON CONFLICT REPLACE clause delete and reinsert every
+ * row.  Days we don't have yet are inserted, days that changed only get their changed columns
+ * updated, and identical days are not touched at all.
+ *
+ * New rows go through one precompiled INSERT statement per batch with the values bound
+ * directly, rather than through SQLiteDatabase.insert, which builds and compiles the SQL again
+ * for every row.  Location batches get the same treatment.
+ *
+ * The caller owns the transaction.  Dates must already be normalized.
+ */
+class WeatherBulkWriter {
+
+    static class Counts {
+        int inserted;
+        int updated;
+        int unchanged;
+
+        /**
+         * @return the number of rows that were actually written.
+         */
+        int changed() {
+            return inserted + updated;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged";
+        }
+    }
+
+    static final String sLocationAndDateRangeSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+
+    private static final String sIdSelection = WeatherEntry._ID + " = ?";
+
+    // The columns bound by the compiled weather insert, in binding order
+    private static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // The columns bound by the compiled location insert, in binding order
+    private static final String[] LOCATION_COLUMNS = {
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SQL_INSERT_WEATHER = buildInsert(WeatherEntry.TABLE_NAME,
+            WEATHER_COLUMNS);
+    private static final String SQL_INSERT_LOCATION = buildInsert(LocationEntry.TABLE_NAME,
+            LOCATION_COLUMNS);
+
+    private WeatherBulkWriter() {
+    }
+
+    static Counts upsert(SQLiteDatabase db, ContentValues[] values) {
+        Counts counts = new Counts();
+        Inserter inserter = new Inserter(db, SQL_INSERT_WEATHER, WEATHER_COLUMNS,
+                WeatherEntry.TABLE_NAME);
+        try {
+            upsert(db, values, inserter, counts);
+        } finally {
+            inserter.close();
+        }
+        return counts;
+    }
+
+    /**
+     * Inserts a batch of locations.  Locations whose setting is already stored are skipped, the
+     * same way SQLiteDatabase.insert skips them.
+     *
+     * @return the number of locations inserted.
+     */
+    static int insertLocations(SQLiteDatabase db, ContentValues[] values) {
+        Inserter inserter = new Inserter(db, SQL_INSERT_LOCATION, LOCATION_COLUMNS,
+                LocationEntry.TABLE_NAME);
+        int inserted = 0;
+        try {
+            for (ContentValues value : values) {
+                if (inserter.insert(value) != -1) {
+                    inserted++;
+                }
+            }
+        } finally {
+            inserter.close();
+        }
+        return inserted;
+    }
+
+    private static void upsert(SQLiteDatabase db, ContentValues[] values, Inserter inserter,
+                               Counts counts) {
+        // A sync only ever writes one location, but nothing stops a caller from mixing them
+        Map<Long, List<ContentValues>> byLocation = new LinkedHashMap<>();
+        for (ContentValues value : values) {
+            Long locationId = value.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+            List<ContentValues> locationValues = byLocation.get(locationId);
+            if (locationValues == null) {
+                locationValues = new ArrayList<>(values.length);
+                byLocation.put(locationId, locationValues);
+            }
+            locationValues.add(value);
+        }
+
+        for (Map.Entry<Long, List<ContentValues>> entry : byLocation.entrySet()) {
+            if (entry.getKey() == null) {
+                // let the insert fail the same way it did before
+                for (ContentValues value : entry.getValue()) {
+                    insert(inserter, value, counts);
+                }
+            } else {
+                upsertLocation(db, entry.getKey(), entry.getValue(), inserter, counts);
+            }
+        }
+    }
+
+    private static void upsertLocation(SQLiteDatabase db, long locationId,
+                                       List<ContentValues> values, Inserter inserter,
+                                       Counts counts) {
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        for (ContentValues value : values) {
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            if (date != null) {
+                minDate = Math.min(minDate, date);
+                maxDate = Math.max(maxDate, date);
+            }
+        }
+
+        // One read for the whole window of days we are about to write
+        Cursor cursor = null;
+        Map<Long, Integer> positionByDate = new HashMap<>();
+        if (minDate <= maxDate) {
+            cursor = db.query(WeatherEntry.TABLE_NAME, null, sLocationAndDateRangeSelection,
+                    new String[]{Long.toString(locationId), Long.toString(minDate),
+                            Long.toString(maxDate)},
+                    null, null, null);
+            int dateIndex = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                positionByDate.put(cursor.getLong(dateIndex), cursor.getPosition());
+            }
+        }
+
+        try {
+            for (ContentValues value : values) {
+                Integer position = positionByDate.get(value.getAsLong(WeatherEntry.COLUMN_DATE));
+                if (position == null) {
+                    insert(inserter, value, counts);
+                    continue;
+                }
+
+                cursor.moveToPosition(position);
+                ContentValues changedValues = diff(cursor, value);
+                if (changedValues == null) {
+                    counts.unchanged++;
+                } else {
+                    long id = cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID));
+                    if (db.update(WeatherEntry.TABLE_NAME, changedValues, sIdSelection,
+                            new String[]{Long.toString(id)}) > 0) {
+                        counts.updated++;
+                    }
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void insert(Inserter inserter, ContentValues value, Counts counts) {
+        if (inserter.insert(value) != -1) {
+            counts.inserted++;
+        }
+    }
+
+    /**
+     * @return the columns of value that differ from the current row of the cursor, or null if
+     * the stored row is identical.
+     */
+    private static ContentValues diff(Cursor cursor, ContentValues value) {
+        ContentValues changedValues = null;
+        for (Map.Entry<String, Object> column : value.valueSet()) {
+            int index = cursor.getColumnIndex(column.getKey());
+            if (index == -1 || !isSame(cursor, index, column.getValue())) {
+                if (changedValues == null) {
+                    changedValues = new ContentValues();
+                }
+                putObject(changedValues, column.getKey(), column.getValue());
+            }
+        }
+        return changedValues;
+    }
+
+    private static boolean isSame(Cursor cursor, int index, Object value) {
+        if (value == null) {
+            return cursor.isNull(index);
+        }
+        if (cursor.isNull(index)) {
+            return false;
+        }
+        if (value instanceof String) {
+            return value.equals(cursor.getString(index));
+        }
+        if (value instanceof Number) {
+            // REAL columns hand back exactly the double we stored, and ints may live in REAL
+            // columns too (e.g. temperatures), so everything numeric is compared as a double
+            return ((Number) value).doubleValue() == cursor.getDouble(index);
+        }
+        // anything else (blobs, booleans) is simply rewritten
+        return false;
+    }
+
+    private static void putObject(ContentValues values, String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof String) {
+            values.put(key, (String) value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Long) {
+            values.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else if (value instanceof Short) {
+            values.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(key, (Byte) value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
+        } else {
+            values.put(key, value.toString());
+        }
+    }
+
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sql.append(',');
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Compiles its INSERT the first time a row needs it and reuses it for the rest of the batch.
+     * Rows that don't have exactly the bound columns fall back to SQLiteDatabase.insert.
+     */
+    private static class Inserter {
+        private final SQLiteDatabase mDb;
+        private final String mSql;
+        private final String[] mColumns;
+        private final String mTable;
+        private SQLiteStatement mStatement;
+
+        Inserter(SQLiteDatabase db, String sql, String[] columns, String table) {
+            mDb = db;
+            mSql = sql;
+            mColumns = columns;
+            mTable = table;
+        }
+
+        long insert(ContentValues value) {
+            if (value.size() != mColumns.length) {
+                return mDb.insert(mTable, null, value);
+            }
+            if (mStatement == null) {
+                mStatement = mDb.compileStatement(mSql);
+            }
+            for (int i = 0; i < mColumns.length; i++) {
+                Object column = value.get(mColumns[i]);
+                int index = i + 1;
+                if (column == null) {
+                    if (!value.containsKey(mColumns[i])) {
+                        mStatement.clearBindings();
+                        return mDb.insert(mTable, null, value);
+                    }
+                    mStatement.bindNull(index);
+                } else if (column instanceof String) {
+                    mStatement.bindString(index, (String) column);
+                } else if (column instanceof Double || column instanceof Float) {
+                    mStatement.bindDouble(index, ((Number) column).doubleValue());
+                } else if (column instanceof Number) {
+                    mStatement.bindLong(index, ((Number) column).longValue());
+                } else if (column instanceof Boolean) {
+                    mStatement.bindLong(index, (Boolean) column ? 1 : 0);
+                } else if (column instanceof byte[]) {
+                    mStatement.bindBlob(index, (byte[]) column);
+                } else {
+                    mStatement.bindString(index, column.toString());
+                }
+            }
+            try {
+                return mStatement.executeInsert();
+            } catch (SQLiteConstraintException e) {
+                // SQLiteDatabase.insert reports constraint violations as -1, and so do we
+                return -1;
+            }
+        }
+
+        void close() {
+            if (mStatement != null) {
+                mStatement.close();
+            }
+        }
+    }
+}
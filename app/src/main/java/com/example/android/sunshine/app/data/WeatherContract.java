@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.List;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,6 +45,8 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // Forecasts of several locations at once, e.g. weather_locations?location_setting=a&location_setting=b
+    public static final String PATH_WEATHER_LOCATIONS = "weather_locations";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -126,6 +130,10 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Forecasts of several locations in one cursor, see buildWeatherLocations
+        public static final Uri LOCATIONS_CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER_LOCATIONS).build();
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +157,25 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * @param startDate the first day to return, or 0 for every stored day.
+         */
+        public static Uri buildWeatherLocations(List<String> locationSettings, long startDate) {
+            Uri.Builder builder = LOCATIONS_CONTENT_URI.buildUpon();
+            for (String locationSetting : locationSettings) {
+                builder.appendQueryParameter(LocationEntry.COLUMN_LOCATION_SETTING,
+                        locationSetting);
+            }
+            if (startDate != 0) {
+                builder.appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)));
+            }
+            return builder.build();
+        }
+
+        public static List<String> getLocationSettingsFromUri(Uri uri) {
+            return uri.getQueryParameters(LocationEntry.COLUMN_LOCATION_SETTING);
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -18,26 +18,127 @@ package com.example.android.sunshine.app.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The schema is the version 2 one plus every migration in MIGRATIONS, both for new installs
+ * and for upgrades, so that an upgraded database always ends up like a fresh one without its
+ * forecast being thrown away.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version and add
+    // a Migration to that version to MIGRATIONS.
+    static final int DATABASE_VERSION = 3;
+
+    // The schema created by createBaseline.  Anything older is dropped and rebuilt.
+    static final int BASELINE_VERSION = 2;
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    public static final String DATABASE_NAME = "weather.db";
 
-    static final String DATABASE_NAME = "weather.db";
+    // The provider looks weather up by location and then by date, which the UNIQUE (date,
+    // location_id) index can't serve.  The rest of the columns shown by the forecast list and
+    // the widgets are appended so that those queries never have to touch the table itself
+    // (the _id is always part of an index).  Since it starts with (location_id, date), the same
+    // index serves every other location and date lookup too.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX +
+                    " ON " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ");";
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    /**
+     * One step of the schema history, from the version before toVersion to toVersion.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In version order, one per version after BASELINE_VERSION
+    static final Migration[] MIGRATIONS = {
+            // 3: the (location_id, date) covering index
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createAtVersion(sqLiteDatabase, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < BASELINE_VERSION) {
+            // This database is only a cache for online data, and versions before the baseline
+            // are too old to bother converting, so their policy is still to discard the data
+            // and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    /**
+     * Creates the schema as it was at the given version.  Besides onCreate, this lets the
+     * tests build the database of any past release.
+     */
+    static void createAtVersion(SQLiteDatabase db, int version) {
+        createBaseline(db);
+        migrate(db, BASELINE_VERSION, version);
+    }
+
+    /**
+     * Runs the migrations after fromVersion up to toVersion, in order, each in its own
+     * transaction.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= fromVersion || migration.toVersion > toVersion) {
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.d(LOG_TAG, "Migrated to version " + migration.toVersion + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+
+    private static void createBaseline(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -82,17 +183,4 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
-
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
-    }
 }
@@ -23,19 +23,28 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Serves the per-location queries every consumer runs after a sync
+    private final ForecastSnapshotCache mSnapshotCache = new ForecastSnapshotCache();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATIONS = 103;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +61,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -93,6 +102,54 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    static final String sLocationSettingsSortOrder =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " ASC, " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    //location.location_setting IN (?, ?, ...) [AND date >= ?]
+    static String buildLocationSettingsSelection(int locationCount, boolean withStartDate) {
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry.TABLE_NAME)
+                .append('.').append(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                .append(" IN (");
+        for (int i = 0; i < locationCount; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(") ");
+        if (withStartDate) {
+            selection.append("AND ").append(WeatherContract.WeatherEntry.COLUMN_DATE)
+                    .append(" >= ? ");
+        }
+        return selection.toString();
+    }
+
+    private Cursor getWeatherByLocationSettings(Uri uri, String[] projection, String sortOrder) {
+        List<String> locationSettings = WeatherContract.WeatherEntry.getLocationSettingsFromUri(uri);
+        if (locationSettings.isEmpty()) {
+            // "IN ()" is not valid SQL
+            throw new IllegalArgumentException("No location setting in uri: " + uri);
+        }
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String selection = buildLocationSettingsSelection(locationSettings.size(), startDate != 0);
+        List<String> selectionArgs = new ArrayList<>(locationSettings);
+        if (startDate != 0) {
+            selectionArgs.add(Long.toString(startDate));
+        }
+
+        if (sortOrder == null) {
+            sortOrder = sLocationSettingsSortOrder;
+        }
+
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs.toArray(new String[selectionArgs.size()]),
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -129,6 +186,8 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_LOCATIONS, WEATHER_WITH_LOCATIONS);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
         return matcher;
     }
@@ -160,6 +219,8 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATIONS:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
@@ -175,16 +236,35 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
+        Uri notificationUri = uri;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = mSnapshotCache.query(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), 0,
+                        WeatherContract.WeatherEntry.getDateFromUri(uri), projection, sortOrder);
+                if (retCursor == null) {
+                    retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = mSnapshotCache.query(mOpenHelper.getReadableDatabase(),
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.WeatherEntry.getStartDateFromUri(uri), 0,
+                        projection, sortOrder);
+                if (retCursor == null) {
+                    retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                }
+                break;
+            }
+            // "weather_locations?location_setting=..."
+            case WEATHER_WITH_LOCATIONS: {
+                retCursor = getWeatherByLocationSettings(uri, projection, sortOrder);
+                // this uri doesn't live under weather/, so listen to the whole weather table
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
                 break;
             }
             // "weather"
@@ -217,7 +297,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
@@ -251,6 +331,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        mSnapshotCache.invalidate();
         getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
@@ -276,6 +357,7 @@ public class WeatherProvider extends ContentProvider {
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
+            mSnapshotCache.invalidate();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsDeleted;
@@ -310,38 +392,65 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
+            mSnapshotCache.invalidate();
             getContext().getContentResolver().notifyChange(uri, null);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Weather rows are diffed against the stored forecast, so the returned count is the number
+     * of rows that were inserted or updated; rows identical to the stored ones are not counted
+     * and, if nothing changed at all, no change is notified.  Locations are inserted in one
+     * transaction, skipping the ones that are already stored.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                for (ContentValues value : values) {
+                    normalizeDate(value);
+                }
+                WeatherBulkWriter.Counts counts;
+                db.beginTransaction();
+                try {
+                    counts = WeatherBulkWriter.upsert(db, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                Log.d(LOG_TAG, "Weather bulk insert: " + counts + ". Forecast snapshots: "
+                        + mSnapshotCache);
+                if (counts.changed() > 0) {
+                    mSnapshotCache.invalidate();
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return counts.changed();
+            case LOCATION:
+                int returnCount;
                 db.beginTransaction();
-                int returnCount = 0;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
+                    returnCount = WeatherBulkWriter.insertLocations(db, values);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (returnCount > 0) {
+                    mSnapshotCache.invalidate();
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    ForecastSnapshotCache getSnapshotCache() {
+        return mSnapshotCache;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -22,6 +22,7 @@ import android.net.Uri;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -48,7 +49,14 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(intent);
+            if (snapshot == null) {
+                onUpdate(UPDATE_REASON_OTHER);
+            } else if (snapshot.getDayCount() > 0) {
+                // the sync already read today's forecast for us
+                publishWeather(snapshot.getLocationSetting(), snapshot.getWeatherId(0),
+                        snapshot.getDescription(0));
+            }
         }
     }
 
@@ -60,20 +68,22 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+            publishWeather(location, cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC));
         }
         cursor.close();
     }
+
+    private void publishWeather(String location, int weatherId, String desc) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(desc)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,222 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Remembers the HTTP validators (ETag, Last-Modified) and a hash of the last forecast body
+ * stored for each location, so that a periodic sync can ask OpenWeatherMap for the forecast
+ * conditionally and skip all the work when nothing was published since the last one.
+ *
+ * The validators are persisted in a small properties file next to the weather database.
+ */
+public class ForecastHttpCache {
+    private static final String LOG_TAG = ForecastHttpCache.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast_http_cache.properties";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_HASH = ".hash";
+    private static final String KEY_JULIAN_DAY = ".julian_day";
+    private static final String KEY_SKIPPED_SYNCS = "skipped_syncs";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private static ForecastHttpCache sInstance;
+
+    private final File mFile;
+    private final Properties mProperties = new Properties();
+
+    public static synchronized ForecastHttpCache getInstance(Context context) {
+        if (sInstance == null) {
+            File databaseDir = context.getApplicationContext()
+                    .getDatabasePath(WeatherDbHelper.DATABASE_NAME).getParentFile();
+            sInstance = new ForecastHttpCache(new File(databaseDir, FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    ForecastHttpCache(File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Opens a GET request for the forecast of the given location.  When we still hold a
+     * forecast for that location computed on the same day, the request carries the stored
+     * validators so that the server can answer with 304 Not Modified.
+     *
+     * Only reading the validators holds the lock, the fetches of other locations don't wait
+     * on this one's connection.
+     *
+     * @param useValidators false to force an unconditional request, e.g. when the stored
+     *                      forecast for the location is gone.
+     */
+    public HttpURLConnection open(URL url, String locationSetting, int julianDay,
+                                  boolean useValidators) throws IOException {
+        String etag = null;
+        String lastModified = null;
+        synchronized (this) {
+            // The rows we store are dated relative to the day they were fetched on, so a body
+            // cached yesterday can't be reused today even if the server didn't change it.
+            if (useValidators && julianDay == getJulianDay(locationSetting)) {
+                etag = mProperties.getProperty(locationSetting + KEY_ETAG);
+                lastModified = mProperties.getProperty(locationSetting + KEY_LAST_MODIFIED);
+            }
+        }
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+        urlConnection.connect();
+        return urlConnection;
+    }
+
+    /**
+     * Wraps the response stream so that the body is hashed while it is being parsed.
+     */
+    public static DigestInputStream digest(InputStream in) {
+        try {
+            return new DigestInputStream(in, MessageDigest.getInstance("MD5"));
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @return true if the body hash matches the one stored for the location on the same day.
+     */
+    public synchronized boolean isUnchanged(String locationSetting, int julianDay, String hash) {
+        return julianDay == getJulianDay(locationSetting)
+                && hash.equals(mProperties.getProperty(locationSetting + KEY_HASH));
+    }
+
+    /**
+     * Stores the validators read from a response whose forecast has been written to the
+     * database, for when the connection is already closed.
+     */
+    public synchronized void update(String locationSetting, int julianDay, String etag,
+                                    String lastModified, String hash) {
+        putOrRemove(locationSetting + KEY_ETAG, etag);
+        putOrRemove(locationSetting + KEY_LAST_MODIFIED, lastModified);
+        putOrRemove(locationSetting + KEY_HASH, hash);
+        mProperties.setProperty(locationSetting + KEY_JULIAN_DAY, Integer.toString(julianDay));
+        save();
+    }
+
+    public static String getEtag(HttpURLConnection urlConnection) {
+        return urlConnection.getHeaderField(HEADER_ETAG);
+    }
+
+    public static String getLastModified(HttpURLConnection urlConnection) {
+        return urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * Counts a sync that was short-circuited because the forecast didn't change.
+     *
+     * @return the number of syncs skipped so far.
+     */
+    public synchronized int recordSkippedSync() {
+        int skipped = getSkippedSyncCount() + 1;
+        mProperties.setProperty(KEY_SKIPPED_SYNCS, Integer.toString(skipped));
+        save();
+        return skipped;
+    }
+
+    public synchronized int getSkippedSyncCount() {
+        return Integer.parseInt(mProperties.getProperty(KEY_SKIPPED_SYNCS, "0"));
+    }
+
+    private int getJulianDay(String locationSetting) {
+        return Integer.parseInt(mProperties.getProperty(locationSetting + KEY_JULIAN_DAY, "0"));
+    }
+
+    private void putOrRemove(String key, String value) {
+        if (value != null) {
+            mProperties.setProperty(key, value);
+        } else {
+            mProperties.remove(key);
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(mFile);
+            mProperties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // A damaged cache only costs us one unconditional request
+            Log.e(LOG_TAG, "Error reading " + mFile, e);
+            mProperties.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+
+    private void save() {
+        OutputStream out = null;
+        try {
+            File parent = mFile.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            out = new FileOutputStream(mFile);
+            mProperties.store(out, null);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + mFile, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the OpenWeatherMap daily forecast response into the {@link ContentValues} rows
+ * stored by the WeatherProvider.
+ *
+ * The streaming path pulls tokens straight from the HTTP stream, so neither the response body
+ * nor a JSONObject tree is ever materialized. The JSONObject path is kept for devices without
+ * {@link JsonReader} (pre Honeycomb) and as a baseline for benchmarks.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Every column of a day the weather table declares NOT NULL, besides the location key.
+    // The JSONObject path throws when one of them is missing, and so must the streaming path,
+    // or the bulk insert drops the day while the sync still saves the response's validators.
+    private static final String[] REQUIRED_DAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    /**
+     * Result of parsing one forecast response.  The weather rows do not carry a location id
+     * yet, because the location row can only be resolved once the city has been read.
+     */
+    public static class Forecast {
+        public int code = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public final List<ContentValues> days = new ArrayList<ContentValues>();
+
+        /**
+         * Stamps every parsed day with the row id of its location.
+         */
+        public ContentValues[] toContentValues(long locationId) {
+            ContentValues[] cvArray = new ContentValues[days.size()];
+            for (int i = 0; i < cvArray.length; i++) {
+                ContentValues weatherValues = days.get(i);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                cvArray[i] = weatherValues;
+            }
+            return cvArray;
+        }
+    }
+
+    /**
+     * Returns the julian day of "today" for this device, which is the day OWM's first list
+     * entry refers to.
+     */
+    public static int getJulianStartDay() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
+    /**
+     * Parses the response using the streaming reader when the platform has one.
+     */
+    public static Forecast parse(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStream(in, julianStartDay);
+        }
+        return parseJsonObject(readFully(in), julianStartDay);
+    }
+
+    /**
+     * Pull-based decoding of the response, straight from the stream.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parseStream(InputStream in, int julianStartDay)
+            throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    int i = 0;
+                    while (reader.hasNext()) {
+                        // Cheating to convert this to UTC time, which is what we want anyhow
+                        long dateTime = dayTime.setJulianDay(julianStartDay + i);
+                        forecast.days.add(readDay(reader, dateTime));
+                        i++;
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // JsonReader reports unexpected tokens as IllegalStateException; surface them the
+            // same way the JSONObject path does so the location status stays accurate.
+            throw new JSONException("Malformed forecast: " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDay(JsonReader reader, long dateTime)
+            throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, reader.nextInt());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, reader.nextDouble());
+                    } else if (OWM_MIN.equals(tempName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readWeather(reader, weatherValues);
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String column : REQUIRED_DAY_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new JSONException("Forecast day without " + column);
+            }
+        }
+        return weatherValues;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readWeather(JsonReader reader, ContentValues weatherValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need to construct the Strings needed for the wireframes.
+     *
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    public static Forecast parseJsonObject(String forecastJsonStr, int julianStartDay)
+            throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.code = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.code != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            ContentValues weatherValues = new ContentValues();
+
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+
+            // Temperatures are in a child object called "temp".
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    temperatureObject.getDouble(OWM_MIN));
+
+            // Description is in a child array called "weather", which is 1 element long.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+
+            forecast.days.add(weatherValues);
+        }
+        return forecast;
+    }
+
+    /**
+     * Reads the whole stream into a String.  Only used by the JSONObject path.
+     */
+    static String readFully(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            StringBuilder buffer = new StringBuilder();
+            char[] chunk = new char[4096];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                buffer.append(chunk, 0, read);
+            }
+            return buffer.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Every stored day of the forecast for one location from today on, read once after a sync and
+ * handed to every consumer (widgets, Muzei, the wearable and the notification) in their
+ * intents, so that none of them has to query the provider again.
+ *
+ * Consumers started without a snapshot, e.g. by the system or by the wearable asking for the
+ * forecast, keep querying the provider themselves.
+ */
+public class ForecastSnapshot {
+
+    public static final String EXTRA_FORECAST_SNAPSHOT =
+            "com.example.android.sunshine.app.extra.FORECAST_SNAPSHOT";
+
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_HIGHS = "highs";
+    private static final String KEY_LOWS = "lows";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_SHORT_DESC = 4;
+
+    private final String mLocationSetting;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mHighs;
+    private final double[] mLows;
+    private final String[] mDescriptions;
+
+    private ForecastSnapshot(String locationSetting, long[] dates, int[] weatherIds,
+                             double[] highs, double[] lows, String[] descriptions) {
+        mLocationSetting = locationSetting;
+        mDates = dates;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+        mDescriptions = descriptions;
+    }
+
+    /**
+     * Reads every stored day of forecast for the location, starting today.
+     */
+    public static ForecastSnapshot load(Context context, String locationSetting) {
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor data = context.getContentResolver().query(weatherForLocationUri, SNAPSHOT_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        int days = data == null ? 0 : data.getCount();
+        long[] dates = new long[days];
+        int[] weatherIds = new int[days];
+        double[] highs = new double[days];
+        double[] lows = new double[days];
+        String[] descriptions = new String[days];
+        for (int i = 0; i < days && data.moveToNext(); i++) {
+            dates[i] = data.getLong(INDEX_DATE);
+            weatherIds[i] = data.getInt(INDEX_WEATHER_ID);
+            highs[i] = data.getDouble(INDEX_MAX_TEMP);
+            lows[i] = data.getDouble(INDEX_MIN_TEMP);
+            descriptions[i] = data.getString(INDEX_SHORT_DESC);
+        }
+        if (data != null) {
+            data.close();
+        }
+        return new ForecastSnapshot(locationSetting, dates, weatherIds, highs, lows,
+                descriptions);
+    }
+
+    /**
+     * @return the snapshot carried by the intent, or null if it was started without one.
+     */
+    public static ForecastSnapshot fromIntent(Intent intent) {
+        Bundle bundle = intent == null ? null : intent.getBundleExtra(EXTRA_FORECAST_SNAPSHOT);
+        if (bundle == null) {
+            return null;
+        }
+        return new ForecastSnapshot(bundle.getString(KEY_LOCATION_SETTING),
+                bundle.getLongArray(KEY_DATES),
+                bundle.getIntArray(KEY_WEATHER_IDS),
+                bundle.getDoubleArray(KEY_HIGHS),
+                bundle.getDoubleArray(KEY_LOWS),
+                bundle.getStringArray(KEY_DESCRIPTIONS));
+    }
+
+    public Intent addTo(Intent intent) {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_LOCATION_SETTING, mLocationSetting);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putDoubleArray(KEY_HIGHS, mHighs);
+        bundle.putDoubleArray(KEY_LOWS, mLows);
+        bundle.putStringArray(KEY_DESCRIPTIONS, mDescriptions);
+        return intent.putExtra(EXTRA_FORECAST_SNAPSHOT, bundle);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    /**
+     * @return the number of days, 0 if there is no forecast from today on.
+     */
+    public int getDayCount() {
+        return mDates.length;
+    }
+
+    /**
+     * @return the index of the given day, or -1 if it isn't in the snapshot.
+     */
+    public int indexOfDate(long date) {
+        long normalizedDate = WeatherContract.normalizeDate(date);
+        for (int i = 0; i < mDates.length; i++) {
+            if (mDates[i] == normalizedDate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public double getHigh(int day) {
+        return mHighs[day];
+    }
+
+    public double getLow(int day) {
+        return mLows[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[day];
+    }
+}
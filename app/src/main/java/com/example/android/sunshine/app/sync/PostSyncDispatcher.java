@@ -0,0 +1,254 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.ArtPrefetcher;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.wear.SyncWearForecastService;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets everything that shows the forecast know about a sync, once its data is committed.
+ *
+ * Requests arriving within DEBOUNCE_MILLIS of each other (a periodic sync right after a
+ * location change, a burst of GCM pushes...) are collapsed into one dispatch, which reads a
+ * single ForecastSnapshot and hands it to the widgets, Muzei, the wearable and the
+ * notification.  The window is never stretched past MAX_DELAY_MILLIS.
+ */
+public class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    private static final long DEBOUNCE_MILLIS = 1500;
+    private static final long MAX_DELAY_MILLIS = 5000;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    private static PostSyncDispatcher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    // guarded by this
+    private boolean mPending;
+    private boolean mPendingDataChanged;
+    private long mFirstRequestTime;
+    private int mRequestCount;
+    private int mDispatchCount;
+    private int mCollapsedCount;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            boolean dataChanged;
+            synchronized (PostSyncDispatcher.this) {
+                dataChanged = mPendingDataChanged;
+                mPending = false;
+                mPendingDataChanged = false;
+                mDispatchCount++;
+            }
+            dispatchNow(dataChanged);
+        }
+    };
+
+    public static synchronized PostSyncDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PostSyncDispatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PostSyncDispatcher(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Schedules the fan-out for a finished sync.  Must be called after the sync's writes have
+     * been committed.
+     *
+     * @param dataChanged false if the sync didn't change the stored forecast, in which case
+     *                    only the daily notification is due.
+     */
+    public synchronized void dispatch(boolean dataChanged) {
+        mRequestCount++;
+        mPendingDataChanged |= dataChanged;
+        long now = SystemClock.elapsedRealtime();
+        if (mPending) {
+            mCollapsedCount++;
+            if (now - mFirstRequestTime + DEBOUNCE_MILLIS > MAX_DELAY_MILLIS) {
+                // keep the dispatch already scheduled
+                return;
+            }
+            mHandler.removeCallbacks(mDispatchRunnable);
+        } else {
+            mPending = true;
+            mFirstRequestTime = now;
+        }
+        mHandler.postDelayed(mDispatchRunnable, DEBOUNCE_MILLIS);
+    }
+
+    public synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    private void dispatchNow(boolean dataChanged) {
+        long start = SystemClock.elapsedRealtime();
+        // the whole stored window, for the wearable; the widgets, Muzei and the notification
+        // only use today
+        ForecastSnapshot snapshot = ForecastSnapshot.load(mContext,
+                Utility.getPreferredLocation(mContext));
+
+        if (dataChanged) {
+            // the widgets and the list get the art from the caches as they render
+            ArtPrefetcher.getInstance(mContext).prefetch();
+            updateWidgets(snapshot);
+            updateMuzei(snapshot);
+            updateWear(snapshot);
+        }
+        notifyWeather(snapshot);
+
+        synchronized (this) {
+            Log.d(LOG_TAG, "Post-sync fan-out took " + (SystemClock.elapsedRealtime() - start)
+                    + " ms. " + mRequestCount + " requested, " + mDispatchCount
+                    + " dispatched, " + mCollapsedCount + " collapsed");
+        }
+    }
+
+    private void updateWidgets(ForecastSnapshot snapshot) {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(mContext.getPackageName());
+        mContext.sendBroadcast(snapshot.addTo(dataUpdatedIntent));
+    }
+
+    private void updateMuzei(ForecastSnapshot snapshot) {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mContext.startService(snapshot.addTo(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(mContext, WeatherMuzeiSource.class)));
+        }
+    }
+
+    private void updateWear(ForecastSnapshot snapshot) {
+        Intent intent = new Intent(mContext, SyncWearForecastService.class);
+        intent.setAction(SyncWearForecastService.SYNC_WEAR_FORECAST_ACTION);
+        mContext.startService(snapshot.addTo(intent));
+    }
+
+    private void notifyWeather(ForecastSnapshot snapshot) {
+        Context context = mContext;
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+
+        if ( displayNotifications ) {
+
+            String lastNotificationKey = context.getString(R.string.pref_last_notification);
+            long lastSync = prefs.getLong(lastNotificationKey, 0);
+
+            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+                // Last sync was more than 1 day ago, let's send a notification with the weather.
+                int today = snapshot.indexOfDate(System.currentTimeMillis());
+
+                if (today != -1) {
+                    int weatherId = snapshot.getWeatherId(today);
+                    double high = snapshot.getHigh(today);
+                    double low = snapshot.getLow(today);
+                    String desc = snapshot.getDescription(today);
+
+                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                    Resources resources = context.getResources();
+                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                    // Retrieve the large icon, at the size of the notification's
+                    ArtPrefetcher artPrefetcher = ArtPrefetcher.getInstance(context);
+                    Bitmap largeIcon;
+                    try {
+                        largeIcon = artPrefetcher
+                                .loadBitmap(Glide.with(context),
+                                        ArtPrefetcher.SURFACE_NOTIFICATION, artUrl)
+                                .error(artResourceId)
+                                .into(artPrefetcher.getWidth(ArtPrefetcher.SURFACE_NOTIFICATION),
+                                        artPrefetcher.getHeight(ArtPrefetcher.SURFACE_NOTIFICATION))
+                                .get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                    }
+                    String title = context.getString(R.string.app_name);
+
+                    // Define the text of the forecast.
+                    String contentText = String.format(context.getString(R.string.format_notification),
+                            desc,
+                            Utility.formatTemperature(context, high),
+                            Utility.formatTemperature(context, low));
+
+                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                    // notifications.  Just throw in some data.
+                    NotificationCompat.Builder mBuilder =
+                            new NotificationCompat.Builder(context)
+                                    .setColor(resources.getColor(R.color.primary_light))
+                                    .setSmallIcon(iconId)
+                                    .setLargeIcon(largeIcon)
+                                    .setContentTitle(title)
+                                    .setContentText(contentText);
+
+                    // Make something interesting happen when the user clicks on the notification.
+                    // In this case, opening the app is sufficient.
+                    Intent resultIntent = new Intent(context, MainActivity.class);
+
+                    // The stack builder object will contain an artificial back stack for the
+                    // started Activity.
+                    // This ensures that navigating backward from the Activity leads out of
+                    // your application to the Home screen.
+                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                    stackBuilder.addNextIntent(resultIntent);
+                    PendingIntent resultPendingIntent =
+                            stackBuilder.getPendingIntent(
+                                    0,
+                                    PendingIntent.FLAG_UPDATE_CURRENT
+                            );
+                    mBuilder.setContentIntent(resultPendingIntent);
+
+                    NotificationManager mNotificationManager =
+                            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                    //refreshing last sync
+                    SharedPreferences.Editor editor = prefs.edit();
+                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                    editor.commit();
+                }
+            }
+        }
+    }
+}
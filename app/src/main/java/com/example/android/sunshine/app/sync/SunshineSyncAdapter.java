@@ -2,68 +2,45 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshine.app.wear.SyncWearForecastService;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.MessageApi;
-import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.security.DigestInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -73,22 +50,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Locations are fetched concurrently, but never more than this many at a time
+    private static final int MAX_PARALLEL_FETCHES = 4;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -107,399 +70,265 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        long syncStart = SystemClock.elapsedRealtime();
+
+        // The preferred location always comes first, so the list is never empty
+        List<String> locations = Utility.getTrackedLocations(getContext());
+        int julianStartDay = ForecastJsonParser.getJulianStartDay();
+        ForecastHttpCache httpCache = ForecastHttpCache.getInstance(getContext());
+
+        List<LocationFetch> fetches = new ArrayList<>(locations.size());
+        for (String locationSetting : locations) {
+            // As long as we still have today's forecast stored, the request is conditional.
+            fetches.add(new LocationFetch(locationSetting, julianStartDay,
+                    hasForecastForToday(locationSetting), httpCache));
+        }
 
+        // Fetch every location at once, on a bounded pool so a long list doesn't open dozens
+        // of connections
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(fetches.size(), MAX_PARALLEL_FETCHES));
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            executor.invokeAll(fetches);
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted");
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+        long fetchMillis = SystemClock.elapsedRealtime() - syncStart;
+
+        // Then write everything that changed in one go
+        List<LocationFetch> updatedFetches = new ArrayList<>();
+        List<ContentValues> weatherValues = new ArrayList<>();
+        long sequentialMillis = 0;
+        for (LocationFetch fetch : fetches) {
+            Log.d(LOG_TAG, "Fetched " + fetch.locationSetting + " in " + fetch.elapsedMillis
+                    + " ms");
+            sequentialMillis += fetch.elapsedMillis;
+            // so that the SyncManager retries a city that failed, whichever one it is
+            if (fetch.status == LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+            } else if (fetch.status == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (fetch.forecast != null) {
+                long locationId = addLocation(fetch.locationSetting, fetch.forecast.cityName,
+                        fetch.forecast.cityLatitude, fetch.forecast.cityLongitude);
+                Collections.addAll(weatherValues, fetch.forecast.toContentValues(locationId));
+                updatedFetches.add(fetch);
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        if (!updatedFetches.isEmpty()) {
+            storeForecasts(weatherValues.toArray(new ContentValues[weatherValues.size()]),
+                    julianStartDay);
+            for (LocationFetch fetch : updatedFetches) {
+                fetch.onStored();
             }
         }
-        return;
+        // the status only describes the preferred location, the one the app shows
+        setLocationStatus(getContext(), fetches.get(0).status);
+
+        Log.d(LOG_TAG, "Sync of " + fetches.size() + " locations took "
+                + (SystemClock.elapsedRealtime() - syncStart) + " ms, fetching took "
+                + fetchMillis + " ms against " + sequentialMillis + " ms one after the other");
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Fetches and parses the forecast of one location, and decides with the ForecastHttpCache
+     * whether it needs storing: not when the server answered 304 or sent the body we stored
+     * last.  Runs on the sync executor, so it doesn't touch the database; the result is picked
+     * up by onPerformSync once every location is done.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    static class LocationFetch implements Callable<LocationFetch> {
+        private static final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+
+        final String locationSetting;
+        private final int mJulianStartDay;
+        private final boolean mHasForecastForToday;
+        private final ForecastHttpCache mHttpCache;
+        // null for the OpenWeatherMap forecast of the location
+        private final URL mUrl;
+
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        // The new forecast to store, or null if it failed or didn't change
+        ForecastJsonParser.Forecast forecast;
+        String etag;
+        String lastModified;
+        String hash;
+        long elapsedMillis;
+
+        LocationFetch(String locationSetting, int julianStartDay, boolean hasForecastForToday,
+                      ForecastHttpCache httpCache) {
+            this(null, locationSetting, julianStartDay, hasForecastForToday, httpCache);
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        /**
+         * @param url to fetch the forecast from instead of OpenWeatherMap, for tests.
+         */
+        LocationFetch(URL url, String locationSetting, int julianStartDay,
+                      boolean hasForecastForToday, ForecastHttpCache httpCache) {
+            this.locationSetting = locationSetting;
+            mJulianStartDay = julianStartDay;
+            mHasForecastForToday = hasForecastForToday;
+            mHttpCache = httpCache;
+            mUrl = url;
+        }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        /**
+         * Keeps the validators of the response, once its forecast has been written to the
+         * database.
+         */
+        void onStored() {
+            mHttpCache.update(locationSetting, mJulianStartDay, etag, lastModified, hash);
+        }
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+        @Override
+        public LocationFetch call() {
+            long start = SystemClock.elapsedRealtime();
+
+            // This needs to be declared outside the try/catch
+            // so that it can be closed in the finally block.
+            HttpURLConnection urlConnection = null;
+            try {
+                // Create the request to OpenWeatherMap, and open the connection
+                urlConnection = mHttpCache.open(
+                        mUrl != null ? mUrl : buildForecastUrl(locationSetting),
+                        locationSetting, mJulianStartDay, mHasForecastForToday);
+
+                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    Log.d(LOG_TAG, "Sync of " + locationSetting + " skipped, forecast not modified. "
+                            + mHttpCache.recordSkippedSync() + " syncs skipped so far");
+                    status = LOCATION_STATUS_OK;
+                    return this;
+                }
 
-                switch (errorCode) {
+                // Decode the forecast straight from the stream, the body is never buffered.  It
+                // is hashed on the way so that we can tell if it's the same one we stored last
+                // time.
+                DigestInputStream digestStream =
+                        ForecastHttpCache.digest(urlConnection.getInputStream());
+                ForecastJsonParser.Forecast parsed =
+                        ForecastJsonParser.parse(digestStream, mJulianStartDay);
+                hash = ForecastHttpCache.toHex(digestStream.getMessageDigest().digest());
+                etag = ForecastHttpCache.getEtag(urlConnection);
+                lastModified = ForecastHttpCache.getLastModified(urlConnection);
+
+                // do we have an error?
+                switch (parsed.code) {
                     case HttpURLConnection.HTTP_OK:
                         break;
                     case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
+                        status = LOCATION_STATUS_INVALID;
+                        return this;
                     default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                        status = LOCATION_STATUS_SERVER_DOWN;
+                        return this;
                 }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                if (i == 0) {
-                    Intent intent = new Intent(getContext(), SyncWearForecastService.class);
-                    intent.setAction(SyncWearForecastService.SYNC_WEAR_FORECAST_ACTION);
-                    getContext().startService(intent);
+                if (mHasForecastForToday
+                        && mHttpCache.isUnchanged(locationSetting, mJulianStartDay, hash)) {
+                    mHttpCache.update(locationSetting, mJulianStartDay, etag, lastModified, hash);
+                    Log.d(LOG_TAG, "Sync of " + locationSetting + " skipped, forecast unchanged. "
+                            + mHttpCache.recordSkippedSync() + " syncs skipped so far");
+                    status = LOCATION_STATUS_OK;
+                    return this;
                 }
 
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+                if (parsed.cityName == null) {
+                    throw new JSONException("Forecast without city");
+                }
+                forecast = parsed;
+                status = LOCATION_STATUS_OK;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error ", e);
+                // If the code didn't successfully get the weather data, there's no point in
+                // attempting to parse it.
+                status = LOCATION_STATUS_SERVER_DOWN;
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                status = LOCATION_STATUS_SERVER_INVALID;
+            } finally {
+                if (urlConnection != null) {
+                    urlConnection.disconnect();
+                }
+                elapsedMillis = SystemClock.elapsedRealtime() - start;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return this;
         }
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
+    private static URL buildForecastUrl(String locationQuery) throws MalformedURLException {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
     }
 
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+    /**
+     * Stores the new forecast rows of every synced location in one bulk insert, which the
+     * provider runs in a single transaction, and lets the widgets, Muzei, the wearable and the
+     * notification know about it through the PostSyncDispatcher.
+     */
+    private void storeForecasts(ContentValues[] cvArray, int julianStartDay) {
+        // add to database
+        if ( cvArray.length > 0 ) {
+            // only the rows that differ from the stored forecast are written
+            int changed = getContext().getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+
+            // delete old data so we don't build up an endless history
+            Time dayTime = new Time();
+            int deleted = getContext().getContentResolver().delete(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+
+            // both writes have committed by now, the fan-out reads what they left
+            PostSyncDispatcher.getInstance(getContext()).dispatch(changed > 0 || deleted > 0);
+            Log.d(LOG_TAG, "Sync Complete. " + changed + " of " + cvArray.length
+                    + " rows written, " + deleted + " deleted");
         }
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
+    /**
+     * @return true if today's forecast for the location is still in the database, which is
+     * what makes a "not modified" answer from the server safe to act upon.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
         }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
     }
 
     /**
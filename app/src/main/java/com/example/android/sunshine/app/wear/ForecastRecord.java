@@ -0,0 +1,241 @@
+package com.example.android.sunshine.app.wear;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The forecast window sent to the watch in one DataItem, as a compact versioned binary record,
+ * so that the watch can format each day itself and move on to the next one at midnight without
+ * asking the phone.
+ *
+ * Version 1 layout, all integers as unsigned LEB128 varints, signed ones zigzag encoded first:
+ * <pre>
+ *   version, flags (1 = imperial units), icon count, icon hashes (length + UTF-8 bytes),
+ *   day count, then per day: julian day (the first one absolute, then deltas), weather id,
+ *   high and low in tenths of a degree Celsius (signed), icon index + 1 (0 for none)
+ * </pre>
+ * The watch face has its own copy of this class, keep both in step and bump VERSION on any
+ * change to the layout.
+ */
+public class ForecastRecord {
+
+    public static final int VERSION = 1;
+
+    private static final int FLAG_IMPERIAL = 1;
+
+    private final boolean mImperial;
+    private final int[] mJulianDays;
+    private final int[] mWeatherIds;
+    private final int[] mHighs;
+    private final int[] mLows;
+    private final String[] mIconHashes;
+
+    /**
+     * @param highs      tenths of a degree Celsius.
+     * @param lows       tenths of a degree Celsius.
+     * @param iconHashes the hash of each day's icon asset, null for a day without icon.
+     */
+    public ForecastRecord(boolean imperial, int[] julianDays, int[] weatherIds, int[] highs,
+                          int[] lows, String[] iconHashes) {
+        int days = julianDays.length;
+        if (weatherIds.length != days || highs.length != days || lows.length != days
+                || iconHashes.length != days) {
+            throw new IllegalArgumentException("Every day needs all of its fields");
+        }
+        mImperial = imperial;
+        mJulianDays = julianDays;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+        mIconHashes = iconHashes;
+    }
+
+    public byte[] encode() {
+        List<String> icons = new ArrayList<>();
+        for (String hash : mIconHashes) {
+            if (hash != null && !icons.contains(hash)) {
+                icons.add(hash);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + icons.size() * 33
+                + mJulianDays.length * 10);
+        writeVarint(out, VERSION);
+        writeVarint(out, mImperial ? FLAG_IMPERIAL : 0);
+        writeVarint(out, icons.size());
+        for (String hash : icons) {
+            byte[] bytes = utf8(hash);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, mJulianDays.length);
+        int previousDay = 0;
+        for (int day = 0; day < mJulianDays.length; day++) {
+            writeVarint(out, zigzag(mJulianDays[day] - previousDay));
+            previousDay = mJulianDays[day];
+            writeVarint(out, mWeatherIds[day]);
+            writeVarint(out, zigzag(mHighs[day]));
+            writeVarint(out, zigzag(mLows[day]));
+            writeVarint(out, mIconHashes[day] == null ? 0 : icons.indexOf(mIconHashes[day]) + 1);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the record is truncated, malformed, or of a version
+     *                                  this code doesn't know.
+     */
+    public static ForecastRecord decode(byte[] record) {
+        Reader in = new Reader(record);
+        int version = in.readVarint();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown forecast record version " + version);
+        }
+        boolean imperial = (in.readVarint() & FLAG_IMPERIAL) != 0;
+        String[] icons = new String[in.readCount()];
+        for (int i = 0; i < icons.length; i++) {
+            icons[i] = in.readString();
+        }
+        int days = in.readCount();
+        int[] julianDays = new int[days];
+        int[] weatherIds = new int[days];
+        int[] highs = new int[days];
+        int[] lows = new int[days];
+        String[] iconHashes = new String[days];
+        int previousDay = 0;
+        for (int day = 0; day < days; day++) {
+            julianDays[day] = previousDay + unzigzag(in.readVarint());
+            previousDay = julianDays[day];
+            weatherIds[day] = in.readVarint();
+            highs[day] = unzigzag(in.readVarint());
+            lows[day] = unzigzag(in.readVarint());
+            int icon = in.readVarint();
+            if (icon > icons.length) {
+                throw new IllegalArgumentException("Unknown icon " + icon);
+            }
+            iconHashes[day] = icon == 0 ? null : icons[icon - 1];
+        }
+        return new ForecastRecord(imperial, julianDays, weatherIds, highs, lows, iconHashes);
+    }
+
+    public boolean isImperial() {
+        return mImperial;
+    }
+
+    public int getDayCount() {
+        return mJulianDays.length;
+    }
+
+    /**
+     * @return the index of the day, or -1 if it isn't in the record.
+     */
+    public int indexOfJulianDay(int julianDay) {
+        for (int day = 0; day < mJulianDays.length; day++) {
+            if (mJulianDays[day] == julianDay) {
+                return day;
+            }
+        }
+        return -1;
+    }
+
+    public int getJulianDay(int day) {
+        return mJulianDays[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public int getHigh(int day) {
+        return mHighs[day];
+    }
+
+    public int getLow(int day) {
+        return mLows[day];
+    }
+
+    public String getIconHash(int day) {
+        return mIconHashes[day];
+    }
+
+    /**
+     * @return the temperature in tenths of a degree, as the record stores it.
+     */
+    public static int toTenths(double temperature) {
+        return (int) Math.round(temperature * 10);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static byte[] utf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (mPosition >= mBytes.length) {
+                    throw new IllegalArgumentException("Truncated forecast record");
+                }
+                int b = mBytes[mPosition++];
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in forecast record");
+        }
+
+        /**
+         * Reads a count, which can't be larger than the bytes left.
+         */
+        int readCount() {
+            int count = readVarint();
+            if (count < 0 || count > mBytes.length - mPosition) {
+                throw new IllegalArgumentException("Bad count " + count + " in forecast record");
+            }
+            return count;
+        }
+
+        String readString() {
+            int length = readCount();
+            try {
+                String string = new String(mBytes, mPosition, length, "UTF-8");
+                mPosition += length;
+                return string;
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always available
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -3,154 +3,147 @@ package com.example.android.sunshine.app.wear;
 import android.app.IntentService;
 import android.content.Intent;
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
-import android.os.Bundle;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
+import android.text.format.Time;
 import android.util.Log;
 
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
+import com.example.android.sunshine.app.sync.ForecastHttpCache;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
 
-import java.util.concurrent.TimeUnit;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class SyncWearForecastService extends IntentService implements
-        GoogleApiClient.OnConnectionFailedListener, GoogleApiClient.ConnectionCallbacks {
+public class SyncWearForecastService extends IntentService {
 
     private static final String LOG_TAG = SyncWearForecastService.class.getSimpleName();
 
     public static final String SYNC_WEAR_FORECAST_ACTION = "com.example.android.sunshine.app.syncwearforecast";
+    // Set on the pushes a watch asked for, which report back to the WearRequestCoalescer
+    static final String EXTRA_REQUESTED = "com.example.android.sunshine.app.extra.WEAR_REQUESTED";
 
     private static final String FORECAST_PATH = "/forecast";
-    private static final String FORECAST_HIGH_KEY = "FORECAST_HIGH_KEY";
-    private static final String FORECAST_LOW_KEY = "FORECAST_LOW_KEY";
-    private static final String FORECAST_ICON_KEY = "FORECAST_ICON_KEY";
+    // Every stored day from today on as a ForecastRecord, which the watch moves through on its
+    // own while it is away from the phone
+    private static final String FORECAST_RECORD_KEY = "FORECAST_RECORD_KEY";
+    // Followed by the hash of the asset bytes, which the watch keeps its decoded icons under so
+    // that it only reads the asset of an icon it hasn't seen
+    private static final String FORECAST_ICON_KEY_PREFIX = "FORECAST_ICON_";
     private static final String FORECAST_DATE_KEY = "FORECAST_DATE_KEY";
 
-    private static final int SEND_TIMEOUT = 500;
-
-    private GoogleApiClient mGoogleApiCLient;
-
-
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
+    // The icons of the last forecast this process pushed, to tell how many icon bytes each push
+    // adds to it.  Not what the watch holds: the Data Layer decides what it transfers, and this
+    // is forgotten with the process.
+    private static Set<String> sLastIconHashes = new HashSet<>();
+    private static final AtomicLong sIconBytesNew = new AtomicLong();
+    private static final AtomicLong sIconBytesUnchanged = new AtomicLong();
 
     public SyncWearForecastService() {
         super("SyncWearForecastService");
     }
 
-    @Override
-    public void onCreate() {
-        super.onCreate();
-
-        if (mGoogleApiCLient == null) {
-            mGoogleApiCLient = new GoogleApiClient.Builder(getApplicationContext())
-                    .addApi(Wearable.API)
-                    .addOnConnectionFailedListener(this)
-                    .addConnectionCallbacks(this)
-                    .build();
-        }
-
-        Log.d(LOG_TAG, "Connecting Google Api Client");
-        mGoogleApiCLient.connect();
-    }
-
     @Override
     protected void onHandleIntent(Intent intent) {
         if (intent != null && SYNC_WEAR_FORECAST_ACTION.equals(intent.getAction())) {
 
-            String location = Utility.getPreferredLocation(this);
-
-            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-            Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-
-            if (data == null)
-                return;
-
-            if (!data.moveToFirst()) {
-                data.close();
-                return;
+            try {
+                ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(intent);
+                if (snapshot == null) {
+                    // not started after a sync, e.g. the watch asked for the forecast
+                    snapshot = ForecastSnapshot.load(this, Utility.getPreferredLocation(this));
+                }
+                if (snapshot.getDayCount() > 0) {
+                    sendForecast(getApplicationContext(), snapshot);
+                }
+            } finally {
+                if (intent.getBooleanExtra(EXTRA_REQUESTED, false)) {
+                    WearRequestCoalescer.getInstance(this).onPushFinished();
+                }
             }
-
-            // Extract the weather data from the Cursor
-            int weatherId = data.getInt(INDEX_WEATHER_ID);
-            double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-            double minTemp = data.getDouble(INDEX_MIN_TEMP);
-            data.close();
-
-            sendForecast(getApplicationContext(), mGoogleApiCLient, weatherId, maxTemp, minTemp);
         }
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
-
-        if (mGoogleApiCLient != null && mGoogleApiCLient.isConnected())
-            mGoogleApiCLient.disconnect();
-    }
-
-    @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        Log.d(LOG_TAG, "Google API Client connected ...");
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-        Log.d(LOG_TAG, "Google API Client suspended ...");
-    }
-
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-        Log.d(LOG_TAG, "Google API Client connection failed ...");
-    }
-
-    public static void sendForecast(Context context, GoogleApiClient googleApiClient, int weatherId, double high, double low) {
+    public static void sendForecast(Context context, ForecastSnapshot snapshot) {
         // creating data map to send to wear
         PutDataMapRequest dataMap = PutDataMapRequest.create(FORECAST_PATH).setUrgent();
 
-        // formating values
-        final String highTemp = Utility.formatTemperature(context, high);
-        final String lowTemp = Utility.formatTemperature(context, low);
+        int days = snapshot.getDayCount();
+        int[] julianDays = new int[days];
+        int[] weatherIds = new int[days];
+        int[] highs = new int[days];
+        int[] lows = new int[days];
+        String[] iconHashes = new String[days];
+        Map<String, Asset> icons = new HashMap<>();
+        Time time = new Time();
+        for (int day = 0; day < days; day++) {
+            time.set(snapshot.getDate(day));
+            julianDays[day] = Time.getJulianDay(snapshot.getDate(day), time.gmtoff);
+            weatherIds[day] = snapshot.getWeatherId(day);
+            highs[day] = ForecastRecord.toTenths(snapshot.getHigh(day));
+            lows[day] = ForecastRecord.toTenths(snapshot.getLow(day));
+
+            // getting forecast icon Asset for wearable
+            int forecastIconResource = Utility.getArtResourceForWeatherCondition(weatherIds[day]);
+            if (forecastIconResource != -1) {
+                Asset forecastIcon = Utility.createAsset(forecastIconResource, context);
+                iconHashes[day] = hash(forecastIcon.getData());
+                icons.put(iconHashes[day], forecastIcon);
+            }
+        }
 
-        dataMap.getDataMap().putString(FORECAST_HIGH_KEY, highTemp);
-        dataMap.getDataMap().putString(FORECAST_LOW_KEY, lowTemp);
+        ForecastRecord record = new ForecastRecord(!Utility.isMetric(context), julianDays,
+                weatherIds, highs, lows, iconHashes);
+        byte[] recordBytes = record.encode();
+        // the record names the icons by hash, so it stands for the whole payload
+        String payloadHash = hash(recordBytes);
+        WearRequestCoalescer coalescer = WearRequestCoalescer.getInstance(context);
+        if (!coalescer.shouldPush(payloadHash)) {
+            Log.d(LOG_TAG, "The watch already has this forecast. " + coalescer);
+            return;
+        }
+        dataMap.getDataMap().putByteArray(FORECAST_RECORD_KEY, recordBytes);
+        for (Map.Entry<String, Asset> icon : icons.entrySet()) {
+            dataMap.getDataMap().putAsset(FORECAST_ICON_KEY_PREFIX + icon.getKey(), icon.getValue());
+        }
 
         // use date to know if wear has up to date forecast data
         dataMap.getDataMap().putLong(FORECAST_DATE_KEY, System.currentTimeMillis());
 
-        // getting forecast icon Asset for wearable
-        int forecastIconResource = Utility.getArtResourceForWeatherCondition(weatherId);
-
-        if (forecastIconResource != -1) {
-            Asset forecastIcon = Utility.createAsset(forecastIconResource, context);
-            dataMap.getDataMap().putAsset(FORECAST_ICON_KEY, forecastIcon);
+        synchronized (SyncWearForecastService.class) {
+            for (Map.Entry<String, Asset> icon : icons.entrySet()) {
+                if (sLastIconHashes.contains(icon.getKey())) {
+                    sIconBytesUnchanged.addAndGet(icon.getValue().getData().length);
+                } else {
+                    sIconBytesNew.addAndGet(icon.getValue().getData().length);
+                }
+            }
+            sLastIconHashes = icons.keySet();
         }
+        Log.d(LOG_TAG, "Icon asset bytes: " + sIconBytesNew.get() + " new, "
+                + sIconBytesUnchanged.get() + " unchanged since the last push");
 
         PutDataRequest req = dataMap.asPutDataRequest();
 
-        DataApi.DataItemResult dataItemResult = Wearable.DataApi.putDataItem(googleApiClient, req).await(SEND_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (WearConnection.getInstance(context).putDataItem(req)) {
+            coalescer.onPushSucceeded(payloadHash);
+            Log.d(LOG_TAG, "Forecast Sent to Wear: " + days + " days");
+        }
 
-        if (dataItemResult != null && !dataItemResult.getStatus().isSuccess())
-            Log.e(LOG_TAG, "ERROR: " + dataItemResult.getStatus().getStatusMessage());
-        else
-            Log.d(LOG_TAG, "Forecast Sent to Wear: " + lowTemp + " " + highTemp);
+    }
 
+    private static String hash(byte[] bytes) {
+        try {
+            return ForecastHttpCache.toHex(MessageDigest.getInstance("MD5").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available on Android
+            throw new IllegalStateException(e);
+        }
     }
 }
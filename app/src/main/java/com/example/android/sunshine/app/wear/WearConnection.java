@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one GoogleApiClient of the process for talking to the watch, kept connected between
+ * sends instead of being built and connected by every component that sends something.
+ *
+ * Sends block until the client is connected, for at most CONNECT_TIMEOUT_MILLIS, so they must
+ * not run on the main thread.  A failed connection is only retried after a backoff, doubling
+ * up to MAX_BACKOFF_MILLIS, and the client is disconnected once it has been idle for
+ * IDLE_DISCONNECT_MILLIS.
+ */
+public class WearConnection {
+    private static final String LOG_TAG = WearConnection.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long SEND_TIMEOUT_MILLIS = 2000;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long IDLE_DISCONNECT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static WearConnection sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    // not the main thread, the idle disconnect may wait on a connect in progress
+    private final Handler mHandler;
+
+    // guarded by this
+    private int mFailedConnects;
+    private long mRetryTime;
+    private int mConnectCount;
+    private long mConnectMillis;
+    private long mMaxConnectMillis;
+    private int mSendCount;
+    private int mSendSuccessCount;
+
+    private final Runnable mDisconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearConnection.this) {
+                if (mGoogleApiClient.isConnected()) {
+                    Log.d(LOG_TAG, "Disconnecting idle Google Api Client. " + WearConnection.this);
+                    mGoogleApiClient.disconnect();
+                }
+            }
+        }
+    };
+
+    public static synchronized WearConnection getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearConnection(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearConnection(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Puts the data item, connecting first if needed.  Must not be called on the main thread.
+     *
+     * @return false if the client couldn't connect or the data item wasn't put in time.
+     */
+    public boolean putDataItem(PutDataRequest request) {
+        GoogleApiClient client = getConnectedClient();
+        boolean success = false;
+        if (client != null) {
+            DataApi.DataItemResult result = Wearable.DataApi.putDataItem(client, request)
+                    .await(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            Status status = result.getStatus();
+            success = status.isSuccess();
+            if (!success) {
+                Log.e(LOG_TAG, "ERROR: " + status.getStatusMessage());
+            }
+        }
+
+        synchronized (this) {
+            mSendCount++;
+            if (success) {
+                mSendSuccessCount++;
+            }
+            Log.d(LOG_TAG, toString());
+        }
+        return success;
+    }
+
+    /**
+     * @return the connected client, or null if it couldn't connect or is backing off.
+     */
+    private synchronized GoogleApiClient getConnectedClient() {
+        mHandler.removeCallbacks(mDisconnectRunnable);
+        mHandler.postDelayed(mDisconnectRunnable, IDLE_DISCONNECT_MILLIS);
+
+        if (mGoogleApiClient.isConnected()) {
+            return mGoogleApiClient;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now < mRetryTime) {
+            Log.d(LOG_TAG, "Not connecting for another " + (mRetryTime - now) + " ms");
+            return null;
+        }
+
+        ConnectionResult result = mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        long connectMillis = SystemClock.elapsedRealtime() - now;
+        if (!result.isSuccess()) {
+            long backoff = Math.min(INITIAL_BACKOFF_MILLIS << Math.min(mFailedConnects, 16),
+                    MAX_BACKOFF_MILLIS);
+            mFailedConnects++;
+            mRetryTime = SystemClock.elapsedRealtime() + backoff;
+            Log.w(LOG_TAG, "Google Api Client connection failed after " + connectMillis
+                    + " ms: " + result + ", retrying in " + backoff + " ms");
+            return null;
+        }
+
+        mFailedConnects = 0;
+        mRetryTime = 0;
+        mConnectCount++;
+        mConnectMillis += connectMillis;
+        mMaxConnectMillis = Math.max(mMaxConnectMillis, connectMillis);
+        Log.d(LOG_TAG, "Google Api Client connected in " + connectMillis + " ms");
+        return mGoogleApiClient;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Wear connection: " + mConnectCount + " connects, "
+                + (mConnectCount == 0 ? 0 : mConnectMillis / mConnectCount) + " ms mean, "
+                + mMaxConnectMillis + " ms max. " + mSendSuccessCount + " of " + mSendCount
+                + " sends succeeded";
+    }
+}
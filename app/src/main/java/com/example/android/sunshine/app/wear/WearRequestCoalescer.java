@@ -0,0 +1,164 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Turns the forecast requests of the watches into as few pushes as possible.
+ *
+ * Requests arriving within WINDOW_MILLIS of the first one, or while its push is still running,
+ * share that push.  A node asking again within NODE_INTERVAL_MILLIS of its last accepted
+ * request is ignored, whatever its retry loop does.  And a push whose payload is the one the
+ * Data Layer already holds is skipped, see {@link #shouldPush(String)}.
+ */
+public class WearRequestCoalescer {
+    private static final String LOG_TAG = WearRequestCoalescer.class.getSimpleName();
+
+    static final long WINDOW_MILLIS = 2000;
+    static final long NODE_INTERVAL_MILLIS = 10000;
+    // a push that never reported back doesn't block the next ones for longer than this
+    static final long PUSH_TIMEOUT_MILLIS = 30000;
+
+    interface Pusher {
+        /**
+         * Starts a push, which reports back through {@link #onPushFinished()}.
+         */
+        void push();
+    }
+
+    private static WearRequestCoalescer sInstance;
+
+    private final Pusher mPusher;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final long mNodeIntervalMillis;
+
+    // guarded by this
+    private final Map<String, Long> mLastNodeRequest = new HashMap<>();
+    private boolean mWindowOpen;
+    private long mPushStartTime = -1;
+    private String mLastPayloadHash;
+    private int mRequestCount;
+    private int mPushCount;
+    private int mCollapsedCount;
+    private int mRateLimitedCount;
+    private int mSuppressedCount;
+
+    private final Runnable mPushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearRequestCoalescer.this) {
+                mWindowOpen = false;
+                mPushStartTime = SystemClock.elapsedRealtime();
+                mPushCount++;
+            }
+            mPusher.push();
+        }
+    };
+
+    public static synchronized WearRequestCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sInstance = new WearRequestCoalescer(new Pusher() {
+                @Override
+                public void push() {
+                    Intent intent = new Intent(appContext, SyncWearForecastService.class);
+                    intent.setAction(SyncWearForecastService.SYNC_WEAR_FORECAST_ACTION);
+                    intent.putExtra(SyncWearForecastService.EXTRA_REQUESTED, true);
+                    appContext.startService(intent);
+                }
+            }, thread.getLooper(), WINDOW_MILLIS, NODE_INTERVAL_MILLIS);
+        }
+        return sInstance;
+    }
+
+    WearRequestCoalescer(Pusher pusher, Looper looper, long windowMillis,
+                         long nodeIntervalMillis) {
+        mPusher = pusher;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+        mNodeIntervalMillis = nodeIntervalMillis;
+    }
+
+    /**
+     * @param nodeId the node that asked for the forecast.
+     */
+    public synchronized void onRequest(String nodeId) {
+        mRequestCount++;
+        long now = SystemClock.elapsedRealtime();
+
+        Long lastRequest = mLastNodeRequest.get(nodeId);
+        if (lastRequest != null && now - lastRequest < mNodeIntervalMillis) {
+            mRateLimitedCount++;
+            return;
+        }
+        mLastNodeRequest.put(nodeId, now);
+
+        if (mPushStartTime != -1 && now - mPushStartTime >= PUSH_TIMEOUT_MILLIS) {
+            Log.w(LOG_TAG, "The last push never finished");
+            mPushStartTime = -1;
+        }
+        if (mWindowOpen || mPushStartTime != -1) {
+            mCollapsedCount++;
+            return;
+        }
+        mWindowOpen = true;
+        mHandler.postDelayed(mPushRunnable, mWindowMillis);
+    }
+
+    public synchronized void onPushFinished() {
+        mPushStartTime = -1;
+        Log.d(LOG_TAG, toString());
+    }
+
+    /**
+     * @param payloadHash the hash of what a push would put in the DataItem, leaving out what
+     *                    changes on every push, like its time.
+     * @return false if the last successful push had the same payload.
+     */
+    public synchronized boolean shouldPush(String payloadHash) {
+        if (payloadHash.equals(mLastPayloadHash)) {
+            mSuppressedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized void onPushSucceeded(String payloadHash) {
+        mLastPayloadHash = payloadHash;
+    }
+
+    synchronized int getPushCount() {
+        return mPushCount;
+    }
+
+    synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    synchronized int getRateLimitedCount() {
+        return mRateLimitedCount;
+    }
+
+    synchronized int getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Wear requests: " + mRequestCount + " received, " + mPushCount + " pushed, "
+                + mCollapsedCount + " collapsed, " + mRateLimitedCount + " rate limited, "
+                + mSuppressedCount + " pushes suppressed";
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.android.sunshine.app.wear;
 
-import android.content.Intent;
 import android.util.Log;
 
 import com.google.android.gms.wearable.MessageEvent;
@@ -18,8 +17,8 @@ public class WearRequestListenerService extends WearableListenerService {
 
         Log.d(LOG_TAG, "message received from wear :)");
 
-        Intent intent = new Intent(getApplicationContext(), SyncWearForecastService.class);
-        intent.setAction(SyncWearForecastService.SYNC_WEAR_FORECAST_ACTION);
-        getApplication().startService(intent);
+        if (FORECAST_REQUEST_PATH.equals(messageEvent.getPath())) {
+            WearRequestCoalescer.getInstance(this).onRequest(messageEvent.getSourceNodeId());
+        }
     }
 }
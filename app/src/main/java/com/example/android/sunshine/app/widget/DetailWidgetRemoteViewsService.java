@@ -7,21 +7,32 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Parcel;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
 import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.ArtPrefetcher;
+import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
+ *
+ * Each refresh reads the preferences once, and, for a remote art pack, loads the art of the
+ * conditions in the forecast once at the size of the widget's icon, for all the rows showing
+ * them.
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetRemoteViewsService extends RemoteViewsService {
@@ -46,6 +57,18 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor data = null;
+            // read once per refresh
+            private String locationSetting;
+            private boolean localGraphics;
+            // the art of the refresh's conditions, by URL, at the widget's size
+            private Map<String, FutureTarget<Bitmap>> artTargets = new HashMap<>();
+            private final Map<String, Bitmap> art = new HashMap<>();
+
+            // for the log of each refresh
+            private long refreshStart;
+            private long dataSetChangedMillis;
+            private int rowsServed;
+            private long bytesMarshalled;
 
             @Override
             public void onCreate() {
@@ -54,6 +77,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
+                refreshStart = SystemClock.elapsedRealtime();
+                rowsServed = 0;
+                bytesMarshalled = 0;
                 if (data != null) {
                     data.close();
                 }
@@ -62,15 +88,69 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                locationSetting = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                localGraphics = Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this);
                 Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                        .buildWeatherLocationWithStartDate(locationSetting,
+                                System.currentTimeMillis());
                 data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                loadArt();
+                dataSetChangedMillis = SystemClock.elapsedRealtime() - refreshStart;
+            }
+
+            /**
+             * Loads the art of the conditions in the data, keeping what the previous refresh
+             * loaded that's still needed and letting Glide have the rest back.
+             */
+            private void loadArt() {
+                Map<String, FutureTarget<Bitmap>> targets = new HashMap<>();
+                if (!localGraphics && data != null) {
+                    ArtPrefetcher artPrefetcher =
+                            ArtPrefetcher.getInstance(DetailWidgetRemoteViewsService.this);
+                    RequestManager glide = Glide.with(DetailWidgetRemoteViewsService.this);
+                    data.moveToPosition(-1);
+                    while (data.moveToNext()) {
+                        String artUrl = Utility.getArtUrlForWeatherCondition(
+                                DetailWidgetRemoteViewsService.this,
+                                data.getInt(INDEX_WEATHER_CONDITION_ID));
+                        if (artUrl == null || targets.containsKey(artUrl)) {
+                            continue;
+                        }
+                        FutureTarget<Bitmap> target = artTargets.remove(artUrl);
+                        if (target == null) {
+                            // all the loads run at once, their results are waited for below
+                            target = artPrefetcher
+                                    .loadBitmap(glide, ArtPrefetcher.SURFACE_WIDGET, artUrl)
+                                    .into(artPrefetcher.getWidth(ArtPrefetcher.SURFACE_WIDGET),
+                                            artPrefetcher.getHeight(ArtPrefetcher.SURFACE_WIDGET));
+                        }
+                        targets.put(artUrl, target);
+                    }
+                }
+                clearArt();
+                artTargets = targets;
+
+                for (Map.Entry<String, FutureTarget<Bitmap>> entry : targets.entrySet()) {
+                    try {
+                        art.put(entry.getKey(), entry.getValue().get());
+                    } catch (InterruptedException | ExecutionException e) {
+                        // the rows showing it get the icon instead
+                        Log.e(LOG_TAG, "Error retrieving large icon from " + entry.getKey(), e);
+                    }
+                }
+            }
+
+            private void clearArt() {
+                for (FutureTarget<Bitmap> target : artTargets.values()) {
+                    Glide.clear(target);
+                }
+                artTargets.clear();
+                art.clear();
             }
 
             @Override
@@ -79,6 +159,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                     data.close();
                     data = null;
                 }
+                clearArt();
             }
 
             @Override
@@ -97,18 +178,9 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
                 int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
                 Bitmap weatherArtImage = null;
-                if ( !Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this) ) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
+                if ( !localGraphics ) {
+                    weatherArtImage = art.get(Utility.getArtUrlForWeatherCondition(
+                            DetailWidgetRemoteViewsService.this, weatherId));
                 }
                 String description = data.getString(INDEX_WEATHER_DESC);
                 long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
@@ -134,16 +206,33 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
 
                 final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
                         locationSetting,
                         dateInMillis);
                 fillInIntent.setData(weatherUri);
                 views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+                onRowServed(views);
                 return views;
             }
 
+            private void onRowServed(RemoteViews views) {
+                // marshalling the row again to measure it costs as much as sending it, so
+                // only debug builds count the bytes
+                if (BuildConfig.DEBUG) {
+                    Parcel parcel = Parcel.obtain();
+                    views.writeToParcel(parcel, 0);
+                    bytesMarshalled += parcel.dataSize();
+                    parcel.recycle();
+                }
+                if (++rowsServed == getCount()) {
+                    Log.d(LOG_TAG, "Refresh of " + rowsServed + " rows took "
+                            + (SystemClock.elapsedRealtime() - refreshStart) + " ms, "
+                            + dataSetChangedMillis + " ms of it reading the data and "
+                            + art.size() + " pictures"
+                            + (BuildConfig.DEBUG ? ", " + bytesMarshalled + " bytes marshalled" : ""));
+                }
+            }
+
             @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
             private void setRemoteContentDescription(RemoteViews views, String description) {
                 views.setContentDescription(R.id.widget_icon, description);
@@ -33,6 +33,7 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -61,29 +62,45 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
-        String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
+        int weatherId;
+        String description;
+        double maxTemp;
+        double minTemp;
+        ForecastSnapshot snapshot = ForecastSnapshot.fromIntent(intent);
+        if (snapshot != null) {
+            // Started after a sync, which already read today's data for us
+            if (snapshot.getDayCount() == 0) {
+                return;
+            }
+            weatherId = snapshot.getWeatherId(0);
+            description = snapshot.getDescription(0);
+            maxTemp = snapshot.getHigh(0);
+            minTemp = snapshot.getLow(0);
+        } else {
+            // Get today's data from the ContentProvider
+            String location = Utility.getPreferredLocation(this);
+            Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    location, System.currentTimeMillis());
+            Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (data == null) {
+                return;
+            }
+            if (!data.moveToFirst()) {
+                data.close();
+                return;
+            }
+
+            // Extract the weather data from the Cursor
+            weatherId = data.getInt(INDEX_WEATHER_ID);
+            description = data.getString(INDEX_SHORT_DESC);
+            maxTemp = data.getDouble(INDEX_MAX_TEMP);
+            minTemp = data.getDouble(INDEX_MIN_TEMP);
             data.close();
-            return;
         }
-
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
         String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
         String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
@@ -47,7 +47,9 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // pass the forecast snapshot of the sync along, if there's one
+            context.startService(new Intent(intent).setClass(context,
+                    TodayWidgetIntentService.class));
         }
     }
 }
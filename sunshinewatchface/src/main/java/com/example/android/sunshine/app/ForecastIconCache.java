@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded, already scaled forecast icons keyed by the hash of the asset the phone made them
+ * from, in memory and on disk, so that a forecast with a known icon needs neither the asset nor
+ * a decode of the full size art.
+ *
+ * There are only about a dozen different icons, so both levels keep that many and evict the
+ * least recently used beyond it.  The icons handed out are shared: never recycle them.
+ */
+class ForecastIconCache {
+
+    private static final String LOG_TAG = ForecastIconCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecast_icons";
+    private static final int MAX_ICONS = 16;
+    private static final String TEMP_SUFFIX = ".png.tmp";
+
+    private final LruCache<String, Bitmap> mMemoryCache = new LruCache<>(MAX_ICONS);
+    private final File mDirectory;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    ForecastIconCache(Context context) {
+        mDirectory = new File(context.getFilesDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Reads the disk if needed, so it belongs on the loader thread.  The one exception is the
+     * engine's onCreate, which gets the icon of the stored forecast on the main thread so that
+     * the first frame has it: a single icon sized PNG, read once per engine next to the few
+     * hundred bytes of the ForecastStore, which costs less than a frame drawn without it.
+     *
+     * @return the icon made from the asset with this hash, or null if we don't have it.
+     */
+    Bitmap get(String hash) {
+        Bitmap icon = mMemoryCache.get(hash);
+        if (icon == null) {
+            File file = getFile(hash);
+            if (file.exists()) {
+                icon = BitmapFactory.decodeFile(file.getPath());
+            }
+            if (icon != null) {
+                // drawn at its size in pixels, like the icons just decoded from an asset
+                icon.setDensity(Bitmap.DENSITY_NONE);
+                // keep it from being the next one evicted
+                file.setLastModified(System.currentTimeMillis());
+                mMemoryCache.put(hash, icon);
+            }
+        }
+        if (icon == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return icon;
+    }
+
+    /**
+     * Keeps the icon, writing it to disk, so it must not be called on the main thread.  The PNG
+     * is written next to its file and renamed over it, so that a crash or a get during the write
+     * never finds a truncated one.
+     */
+    void put(String hash, Bitmap icon) {
+        mMemoryCache.put(hash, icon);
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        File file = getFile(hash);
+        File tempFile = new File(mDirectory, hash + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(tempFile);
+            written = icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+            // on disk before the rename makes it visible
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + tempFile, e);
+            written = false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing " + tempFile, e);
+                    written = false;
+                }
+            }
+        }
+        if (!written || !tempFile.renameTo(file)) {
+            Log.w(LOG_TAG, "Unable to store " + file);
+            tempFile.delete();
+        }
+        trimDisk();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return hits + " hits of " + total + " (" + (total == 0 ? 0 : hits * 100 / total) + "%)";
+    }
+
+    private File getFile(String hash) {
+        return new File(mDirectory, hash + ".png");
+    }
+
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_ICONS) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_ICONS; i++) {
+            files[i].delete();
+        }
+    }
+}
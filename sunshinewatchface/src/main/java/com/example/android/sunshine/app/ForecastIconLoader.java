@@ -0,0 +1,223 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the forecast icon assets sent by the phone on a single background thread, decoding them
+ * straight to the size the watch face draws them at.
+ *
+ * Icons sent with their asset's hash are kept in a ForecastIconCache and only decoded the first
+ * time, later forecasts with the same icon don't even open the asset.
+ *
+ * Only the latest asset matters: a load still running when a newer one arrives is cancelled, and
+ * its bitmap, if it finishes anyway, is dropped.  Listener calls happen on the main thread.
+ */
+class ForecastIconLoader {
+
+    private static final String LOG_TAG = ForecastIconLoader.class.getSimpleName();
+
+    // the loader has one thread, an asset that never comes must not hold up every later icon,
+    // e.g. when the client is disconnected under a pending load
+    private static final long ASSET_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    interface Listener {
+        /**
+         * Called with the newest icon, which may be shared with the cache: never recycle it.
+         */
+        void onIconLoaded(Bitmap icon);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final int mIconSize;
+    private final Listener mListener;
+    private final ForecastIconCache mCache;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // main thread only
+    private Future<?> mPendingLoad;
+    private int mGeneration;
+
+    ForecastIconLoader(GoogleApiClient googleApiClient, int iconSize, ForecastIconCache cache,
+                       Listener listener) {
+        mGoogleApiClient = googleApiClient;
+        mIconSize = iconSize;
+        mCache = cache;
+        mListener = listener;
+    }
+
+    /**
+     * Starts loading the icon, cancelling the load of any older one.  Must be called on the main
+     * thread.
+     *
+     * @param asset the icon asset, only read if the icon isn't cached.
+     * @param hash  the hash of the asset bytes, or null if the phone didn't send one, in which
+     *              case the icon is neither looked up nor cached.
+     */
+    void load(final Asset asset, final String hash) {
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(true);
+        }
+        final int generation = ++mGeneration;
+        mPendingLoad = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap cachedIcon = hash == null ? null : mCache.get(hash);
+                // every icon with a hash ends up in the cache
+                final boolean shared = hash != null;
+                final Bitmap icon = cachedIcon != null ? cachedIcon : decode(asset);
+                if (icon == null) {
+                    return;
+                }
+                if (cachedIcon == null && hash != null) {
+                    mCache.put(hash, icon);
+                }
+                if (BuildConfig.DEBUG && hash != null) {
+                    Log.d(LOG_TAG, "Icon cache: " + mCache);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // a newer asset arrived meanwhile
+                            if (!shared) {
+                                icon.recycle();
+                            }
+                            return;
+                        }
+                        mPendingLoad = null;
+                        mListener.onIconLoaded(icon);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decodes the icon into the cache if it isn't there yet, so that a later day of the forecast
+     * window has its icon even if the watch is offline by then.  Never cancelled, nothing is
+     * delivered to the listener.
+     */
+    void prefetch(final Asset asset, final String hash) {
+        mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (mCache.get(hash) == null) {
+                    Bitmap icon = decode(asset);
+                    if (icon != null) {
+                        mCache.put(hash, icon);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels any pending load and stops the loader thread.
+     */
+    void shutdown() {
+        mGeneration++;
+        mExecutor.shutdownNow();
+    }
+
+    private Bitmap decode(Asset asset) {
+        if (asset == null) {
+            Log.w(LOG_TAG, "The icon isn't cached and no asset was sent");
+            return null;
+        }
+        long start = SystemClock.elapsedRealtime();
+        byte[] png;
+        DataApi.GetFdForAssetResult result = Wearable.DataApi
+                .getFdForAsset(mGoogleApiClient, asset)
+                .await(ASSET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.w(LOG_TAG, "Couldn't open the icon asset: " + result.getStatus());
+            result.release();
+            return null;
+        }
+        InputStream in = result.getInputStream();
+        if (in == null) {
+            Log.w(LOG_TAG, "Requested an unknown Asset.");
+            return null;
+        }
+        try {
+            png = readFully(in);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the icon asset", e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing the icon asset", e);
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            Log.w(LOG_TAG, "The icon asset is not an image");
+            return null;
+        }
+
+        // Subsample by the largest power of two that stays above the icon size, then let the
+        // decoder scale the rest of the way, so no full size bitmap is ever allocated
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= mIconSize && height / (sampleSize * 2) >= mIconSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inScaled = true;
+        options.inDensity = Math.max(width, height) / sampleSize;
+        options.inTargetDensity = mIconSize;
+        Bitmap icon = BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        if (icon != null) {
+            // the decoder scales by marking the icon with a made up density, which drawing it
+            // would scale by again
+            icon.setDensity(Bitmap.DENSITY_NONE);
+        }
+
+        if (icon != null && BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Decoded a " + width + "x" + height + " icon to " + icon.getWidth()
+                    + "x" + icon.getHeight() + " in " + (SystemClock.elapsedRealtime() - start)
+                    + " ms, " + icon.getByteCount() + " bytes instead of " + width * height * 4);
+        }
+        return icon;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
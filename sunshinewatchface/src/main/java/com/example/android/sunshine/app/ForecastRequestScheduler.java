@@ -0,0 +1,263 @@
+package com.example.android.sunshine.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the watch face asks the phone for a forecast, so that neither the draw path nor
+ * a phone that is away or slow to answer can turn into a request per frame.
+ *
+ * At most one request is in flight.  A request that isn't answered with a forecast is retried
+ * with exponential backoff and jitter, until a forecast arrives.  Without a node to send to
+ * nothing is sent, the request goes out once a node turns up.  A send whose result doesn't
+ * come back within SEND_TIMEOUT_MS, e.g. because the client disconnected under it, counts as
+ * failed.  The time of the next allowed send outlives stop(), so that turning the screen off
+ * and on again doesn't skip the backoff.
+ *
+ * The listener is also woken up just after local midnight, to move on to the new day of the
+ * forecast window.  The handler's clock stops while the watch sleeps, so the wake-up is checked
+ * against the wall clock on every time tick as well.
+ *
+ * Everything happens on the main thread.
+ */
+class ForecastRequestScheduler implements Handler.Callback {
+
+    private static final String LOG_TAG = ForecastRequestScheduler.class.getSimpleName();
+
+    interface Listener {
+        /**
+         * Sends a forecast request, reporting its result through {@link #onRequestSent}.
+         *
+         * @return false if there's no node to send it to.
+         */
+        boolean onSendForecastRequest();
+
+        /**
+         * Called once a day, just after local midnight.
+         */
+        void onMidnight();
+    }
+
+    private static final long INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_BACKOFF_MS = TimeUnit.HOURS.toMillis(1);
+    // the backoff is spread over [1 - JITTER, 1 + JITTER] of itself
+    private static final double JITTER = 0.25;
+    // so that the watches of a time zone don't all ask at the same second
+    private static final long MAX_MIDNIGHT_JITTER_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long SEND_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int MSG_RETRY = 0;
+    private static final int MSG_MIDNIGHT = 1;
+    private static final int MSG_SEND_TIMEOUT = 2;
+
+    private static final int MINUTES_PER_HOUR = 60;
+
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper(), this);
+    private final Random mRandom = new Random();
+
+    // whether a forecast is needed and hasn't arrived yet
+    private boolean mWanted;
+    private boolean mInFlight;
+    // requests sent since the last forecast arrived
+    private int mAttempts;
+    // elapsed realtime before which no request goes out, 0 once a forecast arrived
+    private long mNextSendTime;
+    private long mNextMidnight;
+
+    // messages sent over the last hour, bucketed by minute
+    private final int[] mSentPerMinute = new int[MINUTES_PER_HOUR];
+    private final long[] mBucketMinute = new long[MINUTES_PER_HOUR];
+    private long mSentCount;
+    private long mFailedCount;
+    private long mCollapsedCount;
+
+    ForecastRequestScheduler(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Asks for a forecast.  Sent right away unless a request is in flight or waiting for its
+     * retry, in which case this one is folded into it.
+     */
+    void requestForecast() {
+        mWanted = true;
+        if (mInFlight || mHandler.hasMessages(MSG_RETRY)) {
+            mCollapsedCount++;
+            return;
+        }
+        long wait = mNextSendTime - SystemClock.elapsedRealtime();
+        if (wait > 0) {
+            // stop() dropped the retry, but not the backoff
+            mHandler.sendEmptyMessageDelayed(MSG_RETRY, wait);
+            mCollapsedCount++;
+            return;
+        }
+        send();
+    }
+
+    /**
+     * A node to send to may have turned up, sends a wanted request that couldn't go out.
+     */
+    void onNodeAvailable() {
+        if (mWanted) {
+            requestForecast();
+        }
+    }
+
+    void onRequestSent(boolean success) {
+        if (!mInFlight) {
+            // timed out or stopped already
+            return;
+        }
+        mInFlight = false;
+        mHandler.removeMessages(MSG_SEND_TIMEOUT);
+        if (!success) {
+            mFailedCount++;
+        }
+        if (mWanted) {
+            // sent or not, the forecast only counts once it arrives
+            long delay = getBackoff();
+            mNextSendTime = SystemClock.elapsedRealtime() + delay;
+            mHandler.sendEmptyMessageDelayed(MSG_RETRY, delay);
+            if (BuildConfig.DEBUG) {
+                Log.d(LOG_TAG, "Retrying in " + delay + " ms. " + this);
+            }
+        }
+    }
+
+    void onForecastReceived() {
+        mWanted = false;
+        mAttempts = 0;
+        mNextSendTime = 0;
+        mHandler.removeMessages(MSG_RETRY);
+    }
+
+    /**
+     * Arms the wake-up for the next local midnight, e.g. after the time zone changed.
+     */
+    void scheduleMidnight() {
+        Calendar midnight = Calendar.getInstance();
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        midnight.add(Calendar.DAY_OF_YEAR, 1);
+        mNextMidnight = midnight.getTimeInMillis()
+                + (long) (mRandom.nextDouble() * MAX_MIDNIGHT_JITTER_MS);
+
+        mHandler.removeMessages(MSG_MIDNIGHT);
+        mHandler.sendEmptyMessageDelayed(MSG_MIDNIGHT,
+                mNextMidnight - System.currentTimeMillis());
+    }
+
+    /**
+     * Catches up with a midnight the handler slept through.
+     */
+    void onTimeTick() {
+        if (mNextMidnight != 0 && System.currentTimeMillis() >= mNextMidnight) {
+            onMidnight();
+        }
+    }
+
+    /**
+     * Drops the pending messages, and forgets a request in flight: its result may never come
+     * back once the client disconnects.  That request counts as failed, so the next one waits
+     * for its backoff like any retry.
+     */
+    void stop() {
+        mHandler.removeCallbacksAndMessages(null);
+        if (mInFlight && mWanted) {
+            mNextSendTime = SystemClock.elapsedRealtime() + getBackoff();
+        }
+        mInFlight = false;
+        mNextMidnight = 0;
+    }
+
+    /**
+     * @return the forecast requests sent over the last hour.
+     */
+    int getSentLastHour() {
+        long minute = currentMinute();
+        int sent = 0;
+        for (int i = 0; i < MINUTES_PER_HOUR; i++) {
+            if (minute - mBucketMinute[i] < MINUTES_PER_HOUR) {
+                sent += mSentPerMinute[i];
+            }
+        }
+        return sent;
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_RETRY:
+                if (mWanted && !mInFlight) {
+                    send();
+                }
+                return true;
+            case MSG_MIDNIGHT:
+                onMidnight();
+                return true;
+            case MSG_SEND_TIMEOUT:
+                if (BuildConfig.DEBUG) {
+                    Log.d(LOG_TAG, "No result for the request sent " + SEND_TIMEOUT_MS + " ms ago");
+                }
+                onRequestSent(false);
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Forecast requests: " + getSentLastHour() + " in the last hour, " + mSentCount
+                + " sent, " + mFailedCount + " failed, " + mCollapsedCount + " collapsed";
+    }
+
+    private void send() {
+        if (!mListener.onSendForecastRequest()) {
+            // wait for a node, onNodeAvailable sends it
+            return;
+        }
+        mInFlight = true;
+        mHandler.sendEmptyMessageDelayed(MSG_SEND_TIMEOUT, SEND_TIMEOUT_MS);
+        mAttempts++;
+        mSentCount++;
+
+        long minute = currentMinute();
+        int bucket = (int) (minute % MINUTES_PER_HOUR);
+        if (mBucketMinute[bucket] != minute) {
+            mBucketMinute[bucket] = minute;
+            mSentPerMinute[bucket] = 0;
+        }
+        mSentPerMinute[bucket]++;
+
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, this.toString());
+        }
+    }
+
+    private void onMidnight() {
+        mNextMidnight = 0;
+        mListener.onMidnight();
+        scheduleMidnight();
+    }
+
+    private long getBackoff() {
+        long backoff = INITIAL_BACKOFF_MS << Math.min(Math.max(mAttempts - 1, 0), 16);
+        backoff = Math.min(backoff, MAX_BACKOFF_MS);
+        return (long) (backoff * (1 - JITTER + mRandom.nextDouble() * 2 * JITTER));
+    }
+
+    private static long currentMinute() {
+        return TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast record received from the phone on disk, so that a new engine or a
+ * restarted process shows the forecast from its first frame, without waiting on the phone.
+ * The icons are in the ForecastIconCache already, under the hashes the record names.
+ *
+ * The record is a few hundred bytes, it is read and written synchronously.
+ */
+class ForecastStore {
+
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast_record";
+
+    private final AtomicFile mFile;
+
+    ForecastStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * @return the stored record, or null if there's none or it can't be read, e.g. because an
+     * update changed the record version.
+     */
+    ForecastRecord load() {
+        try {
+            return ForecastRecord.decode(mFile.readFully());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Discarding the stored forecast", e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    void save(byte[] record) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(record);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error storing the forecast", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+}
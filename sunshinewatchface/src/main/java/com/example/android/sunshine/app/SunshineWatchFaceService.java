@@ -6,16 +6,17 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.os.AsyncTask;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.ColorRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -37,15 +38,18 @@ import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.util.Calendar;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -60,10 +64,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
     private static final String FORECAST_REQUEST_PATH = "/forecastRequest";
     private static final String FORECAST_PATH = "/forecast";
-    private static final String FORECAST_HIGH_KEY = "FORECAST_HIGH_KEY";
-    private static final String FORECAST_LOW_KEY = "FORECAST_LOW_KEY";
-    private static final String FORECAST_ICON_KEY = "FORECAST_ICON_KEY";
-    private static final String FORECAST_DATE_KEY = "FORECAST_DATE_KEY";
+    private static final String FORECAST_RECORD_KEY = "FORECAST_RECORD_KEY";
+    private static final String FORECAST_ICON_KEY_PREFIX = "FORECAST_ICON_";
     private static final String FORECAST_CAPABILITY_NAME = "sync_forecast_data";
 
 
@@ -80,6 +82,33 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * In debug builds, one frame out of this many is checked for allocations.
+     */
+    private static final int ALLOCATION_CHECK_INTERVAL = 60;
+
+    /**
+     * In debug builds, the mean time spent in onDraw is logged every this many frames.
+     */
+    private static final int FRAME_STATS_INTERVAL = 300;
+
+    /**
+     * Everything but the time is drawn from a pre-rendered layer, one per display mode.  Turn off
+     * to draw every frame from scratch and compare frame times.
+     */
+    private static final boolean USE_LAYER_CACHE = true;
+
+    /**
+     * The last forecast received is stored and shown from the first frame of a new engine.  Turn
+     * off to compare the time to the first complete frame without it.
+     */
+    private static final boolean USE_FORECAST_STORE = true;
+
+    private static final int LAYER_INTERACTIVE = 0;
+    private static final int LAYER_AMBIENT = 1;
+    private static final int LAYER_LOW_BIT_AMBIENT = 2;
+    private static final int LAYER_COUNT = 3;
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -107,7 +136,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
     private class Engine extends CanvasWatchFaceService.Engine implements
             DataApi.DataListener, GoogleApiClient.ConnectionCallbacks,
-            GoogleApiClient.OnConnectionFailedListener, CapabilityApi.CapabilityListener {
+            GoogleApiClient.OnConnectionFailedListener, CapabilityApi.CapabilityListener,
+            ForecastIconLoader.Listener, ForecastRequestScheduler.Listener {
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
 
@@ -121,8 +151,15 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         private String mForecastHigh;
         private String mForecastLow;
         private Bitmap mForecastIcon;
-        private Time mForecastTime;
-        private boolean mForecastRequestingData = false;
+        private ForecastIconLoader mIconLoader;
+        private ForecastIconCache mIconCache;
+        private ForecastStore mForecastStore;
+        // The forecast window last sent by the phone, and the icon assets of its days by hash
+        private ForecastRecord mForecastRecord;
+        private byte[] mForecastRecordBytes;
+        private final Map<String, Asset> mForecastIconAssets = new HashMap<>();
+        private String mForecastIconHash;
+        private ForecastRequestScheduler mRequestScheduler;
 
         boolean mRegisteredTimeZoneReceiver = false;
 
@@ -141,11 +178,49 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             public void onReceive(Context context, Intent intent) {
                 mTime.clear(intent.getStringExtra("time-zone"));
                 mTime.setToNow();
+                // midnight moved, and today may be another day
+                mRequestScheduler.scheduleMidnight();
+                showTodaysForecast(false);
             }
         };
 
         private final int drawMargin = 10;
 
+        // What onDraw draws, laid out again only when it changes: the time once a minute, the
+        // date once a day and the forecast once per sync
+        private final char[] mTimeChars = new char[5];
+        private int mTimeMinuteOfDay = -1;
+        private String mDateText;
+        private int mDateYear = -1;
+        private int mDateYearDay = -1;
+        private String mForecastText;
+
+        private final Rect mTimeBounds = new Rect();
+        private final Rect mDateBounds = new Rect();
+        private final Rect mForecastBounds = new Rect();
+        private final Rect mLayoutBounds = new Rect();
+        private boolean mLayoutDirty = true;
+
+        private int mTimeX;
+        private int mTimeY;
+        private int mTimeYOffset;
+        private int mDateX;
+        private int mDateY;
+        private int mForecastX;
+        private int mForecastY;
+        private float mForecastIconX;
+        private float mForecastIconY;
+
+        // The background, date and forecast of each display mode, rebuilt only when one of them
+        // or the surface changes, so that switching modes repaints nothing
+        private final Bitmap[] mLayers = new Bitmap[LAYER_COUNT];
+        private final boolean[] mLayerValid = new boolean[LAYER_COUNT];
+
+        private int mFrameCount;
+        private long mDrawNanos;
+        // When onCreate ran, until a frame with the whole forecast has been drawn
+        private long mCreateTime;
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -175,13 +250,36 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mForecastPaint = createTextPaint(R.color.text_gray);
 
             mForecastIconSize = resources.getDimension(R.dimen.forecast_icon_size);
+            mIconCache = new ForecastIconCache(SunshineWatchFaceService.this);
+            mIconLoader = new ForecastIconLoader(mGoogleApiClient,
+                    resources.getDimensionPixelSize(R.dimen.forecast_icon_size), mIconCache, this);
+            mForecastStore = new ForecastStore(SunshineWatchFaceService.this);
+            mRequestScheduler = new ForecastRequestScheduler(this);
 
             mTime = new Time();
+            mTime.setToNow();
+
+            if (USE_FORECAST_STORE) {
+                // start with the last forecast received, icon included, rather than a blank face
+                mForecastRecord = mForecastStore.load();
+                if (mForecastRecord != null) {
+                    showTodaysForecast(true);
+                }
+            }
+            mCreateTime = SystemClock.elapsedRealtime();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mIconLoader.shutdown();
+            mRequestScheduler.stop();
+            for (int i = 0; i < LAYER_COUNT; i++) {
+                if (mLayers[i] != null) {
+                    mLayers[i].recycle();
+                    mLayers[i] = null;
+                }
+            }
             super.onDestroy();
         }
 
@@ -223,8 +321,15 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
+
+                // the day may have changed while we weren't visible
+                mRequestScheduler.scheduleMidnight();
+                showTodaysForecast(false);
             } else {
                 unregisterReceiver();
+                // nothing can be sent without the client, a wanted forecast is asked for again
+                // once a node is found and its backoff is over
+                mRequestScheduler.stop();
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
 
@@ -277,17 +382,23 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             mForecastPaint.setTextSize(resources.getDimension(isRound
                     ? R.dimen.forecast_text_size_round : R.dimen.forecast_text_size));
 
+            // every text block has to be measured again with the new sizes
+            mTimeMinuteOfDay = -1;
+            mDateYearDay = -1;
+            measureForecast();
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            invalidateLayers();
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            mRequestScheduler.onTimeTick();
             invalidate();
         }
 
@@ -311,6 +422,72 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long start = System.nanoTime();
+            mTime.setToNow();
+            boolean relaidOut = updateLayout(bounds);
+
+            if (!BuildConfig.DEBUG) {
+                drawFace(canvas, bounds);
+                logFirstCompleteFrame();
+                return;
+            }
+
+            // A frame that didn't have to lay anything out must not allocate at all
+            boolean checkAllocations = ++mFrameCount % ALLOCATION_CHECK_INTERVAL == 0;
+            if (checkAllocations) {
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+            }
+            drawFace(canvas, bounds);
+            mDrawNanos += System.nanoTime() - start;
+            if (checkAllocations) {
+                Debug.stopAllocCounting();
+                int allocations = Debug.getThreadAllocCount();
+                if (allocations > 0 && !relaidOut) {
+                    Log.w(LOG_TAG, "onDraw allocated " + allocations + " objects at steady state");
+                }
+            }
+            logFirstCompleteFrame();
+
+            if (mFrameCount % FRAME_STATS_INTERVAL == 0) {
+                Log.d(LOG_TAG, "Mean frame time " + mDrawNanos / FRAME_STATS_INTERVAL / 1000
+                        + " us over " + FRAME_STATS_INTERVAL + " frames, layer cache "
+                        + (USE_LAYER_CACHE ? "on" : "off"));
+                mDrawNanos = 0;
+            }
+        }
+
+        /**
+         * Logs how long after onCreate the first frame with the forecast and its icon was drawn.
+         */
+        private void logFirstCompleteFrame() {
+            if (mCreateTime == 0 || mForecastText == null
+                    || (mForecastIconHash != null && mForecastIcon == null)) {
+                return;
+            }
+            Log.d(LOG_TAG, "First complete frame " + (SystemClock.elapsedRealtime() - mCreateTime)
+                    + " ms after onCreate, forecast store " + (USE_FORECAST_STORE ? "on" : "off"));
+            mCreateTime = 0;
+        }
+
+        /**
+         * Only issues draw calls, everything they need was prepared by {@link #updateLayout}.
+         */
+        private void drawFace(Canvas canvas, Rect bounds) {
+            if (USE_LAYER_CACHE) {
+                canvas.drawBitmap(mLayers[getLayer()], 0, 0, null);
+            } else {
+                drawStaticParts(canvas, bounds);
+            }
+
+            // Draw HH:MM.
+            canvas.drawText(mTimeChars, 0, mTimeChars.length, mTimeX, mTimeY, mTimePaint);
+        }
+
+        /**
+         * Draws everything but the time: what the layers hold.
+         */
+        private void drawStaticParts(Canvas canvas, Rect bounds) {
             // Draw the background.
             if (isInAmbientMode()) {
                 canvas.drawColor(Color.BLACK);
@@ -318,45 +495,135 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
                 canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
             }
 
-            // Draw HH:MM.
-            mTime.setToNow();
-            String text = String.format("%02d:%02d", mTime.hour, mTime.minute);
-            Rect timeBounds = new Rect();
-            mTimePaint.getTextBounds(text, 0, text.length(), timeBounds);
-            int timeYOffset = timeBounds.height() / 2;
-            canvas.drawText(text, bounds.centerX() - (timeBounds.width() / 2),
-                    bounds.centerY() + timeYOffset, mTimePaint);
-
-            text = mTime.format("%a, %b %d %G").replace(".", "");
-            Rect dateBounds = new Rect();
-            mDatePaint.getTextBounds(text, 0, text.length(), dateBounds);
-            int dateYOffset = (dateBounds.height() / 2) + drawMargin;
-            canvas.drawText(text, bounds.centerX() - (dateBounds.width() / 2),
-                    bounds.centerY() - dateYOffset - timeYOffset, mDatePaint);
-
-            // if the last forecast sent by Sunshine App is delayed by more than one day
-            // we request forecast again
-            if (mTime != null && mForecastTime != null && mTime.yearDay != mForecastTime.yearDay) {
-                requestForecast(null);
+            canvas.drawText(mDateText, mDateX, mDateY, mDatePaint);
+
+            if (mForecastText != null) {
+                canvas.drawText(mForecastText, mForecastX, mForecastY, mForecastPaint);
+
+                if (mForecastIcon != null && !mAmbient) {
+                    canvas.drawBitmap(mForecastIcon, mForecastIconX, mForecastIconY, mForecastPaint);
+                }
             }
+        }
 
-            if (mForecastLow != null && mForecastHigh != null) {
-                text = mForecastHigh + " " + mForecastLow;
-                Rect forecastBounds = new Rect();
-                mForecastPaint.getTextBounds(text, 0, text.length(), forecastBounds);
-                int forecastYOffset = forecastBounds.height() + drawMargin;
-                canvas.drawText(text, bounds.centerX() - (forecastBounds.width() / 2),
-                        bounds.centerY() + forecastYOffset + timeYOffset, mForecastPaint);
+        /**
+         * Measures the text blocks whose content changed since the last frame, positions them
+         * all again if any of them, or the surface, changed, and renders the layer of the current
+         * display mode if it isn't up to date.
+         *
+         * @return true if anything had to be laid out or rendered again.
+         */
+        private boolean updateLayout(Rect bounds) {
+            boolean relaidOut = false;
+
+            int minuteOfDay = mTime.hour * 60 + mTime.minute;
+            if (minuteOfDay != mTimeMinuteOfDay) {
+                mTimeMinuteOfDay = minuteOfDay;
+                putTwoDigits(mTimeChars, 0, mTime.hour);
+                mTimeChars[2] = ':';
+                putTwoDigits(mTimeChars, 3, mTime.minute);
+                mTimePaint.getTextBounds(mTimeChars, 0, mTimeChars.length, mTimeBounds);
+                mTimeX = bounds.centerX() - (mTimeBounds.width() / 2);
+                // the other blocks only move if the height of the digits changes
+                if (mTimeBounds.height() / 2 != mTimeYOffset) {
+                    mLayoutDirty = true;
+                }
+                relaidOut = true;
+            }
 
+            if (mTime.yearDay != mDateYearDay || mTime.year != mDateYear) {
+                mDateYearDay = mTime.yearDay;
+                mDateYear = mTime.year;
+                mDateText = mTime.format("%a, %b %d %G").replace(".", "");
+                mDatePaint.getTextBounds(mDateText, 0, mDateText.length(), mDateBounds);
+                mLayoutDirty = true;
+            }
 
-                if (mForecastIcon != null && !mAmbient) {
-                    canvas.drawBitmap(mForecastIcon, bounds.centerX() - (mForecastIconSize / 2),
-                            bounds.centerY() + drawMargin + forecastYOffset + timeYOffset, mForecastPaint);
+            if (!mLayoutBounds.equals(bounds)) {
+                mLayoutBounds.set(bounds);
+                mLayoutDirty = true;
+            }
+
+            if (mLayoutDirty) {
+                mLayoutDirty = false;
+
+                mTimeYOffset = mTimeBounds.height() / 2;
+                mTimeX = bounds.centerX() - (mTimeBounds.width() / 2);
+                mTimeY = bounds.centerY() + mTimeYOffset;
+
+                int dateYOffset = (mDateBounds.height() / 2) + drawMargin;
+                mDateX = bounds.centerX() - (mDateBounds.width() / 2);
+                mDateY = bounds.centerY() - dateYOffset - mTimeYOffset;
+
+                int forecastYOffset = mForecastBounds.height() + drawMargin;
+                mForecastX = bounds.centerX() - (mForecastBounds.width() / 2);
+                mForecastY = bounds.centerY() + forecastYOffset + mTimeYOffset;
+                mForecastIconX = bounds.centerX() - (mForecastIconSize / 2);
+                mForecastIconY = bounds.centerY() + drawMargin + forecastYOffset + mTimeYOffset;
+
+                invalidateLayers();
+                relaidOut = true;
+            }
+
+            int layer = getLayer();
+            if (USE_LAYER_CACHE && !mLayerValid[layer]) {
+                renderLayer(layer, bounds);
+                relaidOut = true;
+            }
+            return relaidOut;
+        }
+
+        private int getLayer() {
+            if (!isInAmbientMode()) {
+                return LAYER_INTERACTIVE;
+            }
+            return mLowBitAmbient ? LAYER_LOW_BIT_AMBIENT : LAYER_AMBIENT;
+        }
+
+        /**
+         * Renders the layer of the current display mode, with the paints as that mode sets them.
+         */
+        private void renderLayer(int layer, Rect bounds) {
+            Bitmap bitmap = mLayers[layer];
+            if (bitmap == null || bitmap.getWidth() != bounds.width()
+                    || bitmap.getHeight() != bounds.height()) {
+                if (bitmap != null) {
+                    bitmap.recycle();
                 }
+                bitmap = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        Bitmap.Config.ARGB_8888);
+                mLayers[layer] = bitmap;
+            }
+            drawStaticParts(new Canvas(bitmap), bounds);
+            mLayerValid[layer] = true;
+        }
 
+        private void invalidateLayers() {
+            for (int i = 0; i < LAYER_COUNT; i++) {
+                mLayerValid[i] = false;
             }
         }
 
+        private void putTwoDigits(char[] chars, int offset, int value) {
+            chars[offset] = (char) ('0' + value / 10);
+            chars[offset + 1] = (char) ('0' + value % 10);
+        }
+
+        /**
+         * Builds and measures the forecast line, called when a new forecast arrives.
+         */
+        private void measureForecast() {
+            if (mForecastLow != null && mForecastHigh != null) {
+                mForecastText = mForecastHigh + " " + mForecastLow;
+                mForecastPaint.getTextBounds(mForecastText, 0, mForecastText.length(),
+                        mForecastBounds);
+            } else {
+                mForecastText = null;
+                mForecastBounds.setEmpty();
+            }
+            mLayoutDirty = true;
+        }
+
         /**
          * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
          * or stops it if it shouldn't be running but currently is.
@@ -393,6 +660,21 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         public void onConnected(@Nullable Bundle bundle) {
             Log.d(LOG_TAG, "onConnected: " + bundle);
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+
+            // changes made while we weren't listening aren't delivered, and the phone doesn't
+            // push a forecast it already put, so start from the forecast the Data Layer holds
+            Uri forecastUri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(FORECAST_PATH).build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, forecastUri)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            for (DataItem item : dataItems) {
+                                showForecast(item);
+                            }
+                            dataItems.release();
+                        }
+                    });
         }
 
         @Override
@@ -411,61 +693,106 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             for (DataEvent event : dataEventBuffer) {
                 DataItem item = event.getDataItem();
                 if (FORECAST_PATH.equals(item.getUri().getPath())) {
-                    DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-
-                    mForecastHigh = dataMap.getString(FORECAST_HIGH_KEY);
-                    mForecastLow = dataMap.getString(FORECAST_LOW_KEY);
-
-                    Calendar c = Calendar.getInstance();
-                    c.setTimeInMillis(dataMap.getLong(FORECAST_DATE_KEY));
-
-                    Time t = new Time(mTime.timezone);
-
-                    Asset forecastIcon = dataMap.getAsset(FORECAST_ICON_KEY);
-
-                    if (forecastIcon != null)
-                        new LoadBitmapAsyncTask().execute(forecastIcon);
-
-                    Log.d(LOG_TAG, "High: " + mForecastHigh + ", Low: " + mForecastLow);
+                    showForecast(item);
                 }
             }
         }
 
-        private class LoadBitmapAsyncTask extends AsyncTask<Asset, Void, Bitmap> {
-
-            @Override
-            protected Bitmap doInBackground(Asset... params) {
-
-                if (params.length > 0) {
+        private void showForecast(DataItem item) {
+            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
 
-                    Asset asset = params[0];
-
-                    InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                            mGoogleApiClient, asset).await().getInputStream();
+            byte[] record = dataMap.getByteArray(FORECAST_RECORD_KEY);
+            if (record == null || Arrays.equals(record, mForecastRecordBytes)) {
+                return;
+            }
+            try {
+                mForecastRecord = ForecastRecord.decode(record);
+            } catch (IllegalArgumentException e) {
+                Log.e(LOG_TAG, "Unable to read the forecast", e);
+                return;
+            }
+            mForecastRecordBytes = record;
+            mForecastStore.save(record);
+
+            mForecastIconAssets.clear();
+            for (String key : dataMap.keySet()) {
+                if (key.startsWith(FORECAST_ICON_KEY_PREFIX)) {
+                    mForecastIconAssets.put(key.substring(FORECAST_ICON_KEY_PREFIX.length()),
+                            dataMap.getAsset(key));
+                }
+            }
+            showTodaysForecast(false);
+            // the coming days must not depend on the phone being around
+            for (Map.Entry<String, Asset> icon : mForecastIconAssets.entrySet()) {
+                if (!icon.getKey().equals(mForecastIconHash)) {
+                    mIconLoader.prefetch(icon.getValue(), icon.getKey());
+                }
+            }
 
-                    if (assetInputStream == null) {
-                        Log.w(LOG_TAG, "Requested an unknown Asset.");
-                        return null;
-                    }
-                    return BitmapFactory.decodeStream(assetInputStream);
+            Log.d(LOG_TAG, mForecastRecord.getDayCount() + " days, today High: "
+                    + mForecastHigh + ", Low: " + mForecastLow);
+        }
 
+        /**
+         * Shows the day of the forecast window that is today, asking the phone for a new window
+         * once we've gone through it.
+         *
+         * @param synchronousIcon read a cached icon on this thread, so that it's there for the
+         *                        next frame, rather than through the icon loader.  Only for
+         *                        onCreate, see ForecastIconCache.get.
+         */
+        private void showTodaysForecast(boolean synchronousIcon) {
+            int today = Time.getJulianDay(System.currentTimeMillis(), mTime.gmtoff);
+            int day = mForecastRecord == null ? -1 : mForecastRecord.indexOfJulianDay(today);
+            if (day == -1) {
+                mForecastHigh = null;
+                mForecastLow = null;
+                measureForecast();
+                // backs off if the phone has nothing newer
+                mRequestScheduler.requestForecast();
+                return;
+            }
+            mRequestScheduler.onForecastReceived();
+
+            boolean imperial = mForecastRecord.isImperial();
+            mForecastHigh = formatTemperature(mForecastRecord.getHigh(day), imperial);
+            mForecastLow = formatTemperature(mForecastRecord.getLow(day), imperial);
+            measureForecast();
+
+            String iconHash = mForecastRecord.getIconHash(day);
+            if (iconHash == null) {
+                mForecastIconHash = null;
+                mForecastIcon = null;
+            } else if (!iconHash.equals(mForecastIconHash)) {
+                mForecastIconHash = iconHash;
+                Bitmap icon = synchronousIcon ? mIconCache.get(iconHash) : null;
+                if (icon != null) {
+                    mForecastIcon = icon;
                 } else {
-                    Log.e(LOG_TAG, "Asset must be non-null");
-                    return null;
+                    mIconLoader.load(mForecastIconAssets.get(iconHash), iconHash);
                 }
             }
+        }
 
-            @Override
-            protected void onPostExecute(Bitmap bitmap) {
-
-                if (bitmap != null) {
-                    mForecastIcon = Bitmap.createScaledBitmap(
-                            bitmap,
-                            getResources().getDimensionPixelSize(R.dimen.forecast_icon_size),
-                            getResources().getDimensionPixelSize(R.dimen.forecast_icon_size),
-                            true);
-                }
+        /**
+         * Formats the temperature the way the phone does.
+         *
+         * @param tenths tenths of a degree Celsius, as the record keeps them.
+         */
+        private String formatTemperature(int tenths, boolean imperial) {
+            double temperature = tenths / 10.0;
+            if (imperial) {
+                temperature = (temperature * 1.8) + 32;
             }
+            return String.format("%1.0f\u00B0", temperature);
+        }
+
+        @Override
+        public void onIconLoaded(Bitmap icon) {
+            // icons are shared with the icon cache, the old one is left to it
+            mForecastIcon = icon;
+            invalidateLayers();
+            invalidate();
         }
 
         @Override
@@ -477,7 +804,9 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             Set<Node> connectedNodes = capabilityInfo.getNodes();
             mForecastNodeId = pickBestNodeId(connectedNodes);
 
-            requestForecast(null);
+            if (mForecastNodeId != null) {
+                mRequestScheduler.onNodeAvailable();
+            }
         }
 
         private String pickBestNodeId(Set<Node> nodes) {
@@ -492,28 +821,34 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
             return bestNodeId;
         }
 
-        private void requestForecast(byte[] data) {
-            if (mForecastNodeId != null && !mForecastRequestingData) {
-
-                mForecastRequestingData = true;
-
-                Wearable.MessageApi.sendMessage(mGoogleApiClient, mForecastNodeId, FORECAST_REQUEST_PATH, data)
-                        .setResultCallback( new ResultCallback<MessageApi.SendMessageResult>() {
-                                @Override
-                                public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-                                    if (!sendMessageResult.getStatus().isSuccess()) {
-                                        Log.d(LOG_TAG, "message not sent :(");
-                                    } else {
-                                        Log.d(LOG_TAG, "message sent :)");
-                                    }
+        @Override
+        public boolean onSendForecastRequest() {
+            if (mForecastNodeId == null || !mGoogleApiClient.isConnected()) {
+                return false;
+            }
 
-                                    mForecastRequestingData = false;
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, mForecastNodeId, FORECAST_REQUEST_PATH, null)
+                    .setResultCallback( new ResultCallback<MessageApi.SendMessageResult>() {
+                            @Override
+                            public void onResult(@NonNull MessageApi.SendMessageResult sendMessageResult) {
+                                if (!sendMessageResult.getStatus().isSuccess()) {
+                                    Log.d(LOG_TAG, "message not sent :(");
+                                } else {
+                                    Log.d(LOG_TAG, "message sent :)");
                                 }
+
+                                mRequestScheduler.onRequestSent(sendMessageResult.getStatus().isSuccess());
                             }
-                        );
-            } else {
-                //Log.d(LOG_TAG, "Unable to retrieve node with sync forecast data capability :(");
-            }
+                        }
+                    );
+            return true;
+        }
+
+        @Override
+        public void onMidnight() {
+            mTime.setToNow();
+            showTodaysForecast(false);
+            invalidate();
         }
     }
 }